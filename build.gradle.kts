@@ -3,6 +3,7 @@ import nebula.plugin.contacts.ContactsExtension
 
 plugins {
     `java-library`
+    `java-test-fixtures`
 
     id("nebula.release") version "16.0.0"
 
@@ -15,6 +16,8 @@ plugins {
 
     id("nebula.javadoc-jar") version "18.4.0"
     id("nebula.source-jar") version "18.4.0"
+
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 apply(plugin = "nebula.publish-verification")
@@ -69,13 +72,29 @@ dependencies {
 
     testImplementation("org.openrewrite:rewrite-test")
     testImplementation("org.assertj:assertj-core:latest.release")
+
+    jmh(platform("org.openrewrite.recipe:rewrite-recipe-bom:${rewriteBomVersion}"))
+    jmh("org.openrewrite:rewrite-java")
+    jmh("org.openrewrite:rewrite-java-17")
+    // The sources generated for the benchmarks are shared with the scalability tests
+    jmh(testFixtures(project))
 }
 
+// The test fixtures are not part of the published recipes
+val javaComponent = components["java"] as AdhocComponentWithVariants
+javaComponent.withVariantsFromConfiguration(configurations["testFixturesApiElements"]) { skip() }
+javaComponent.withVariantsFromConfiguration(configurations["testFixturesRuntimeElements"]) { skip() }
+
 tasks.named<Test>("test") {
     useJUnitPlatform()
     jvmArgs = listOf("-XX:+UnlockDiagnosticVMOptions", "-XX:+ShowHiddenFrames")
 }
 
+// Run with ./gradlew jmh, results are written to build/results/jmh
+jmh {
+    profilers.add("gc")
+}
+
 tasks.withType<JavaCompile>().configureEach {
     options.encoding = "UTF-8"
     options.compilerArgs.add("-parameters")
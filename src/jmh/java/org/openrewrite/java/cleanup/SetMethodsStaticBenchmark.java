@@ -0,0 +1,83 @@
+package org.openrewrite.java.cleanup;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openrewrite.ExecutionContext;
+import org.openrewrite.InMemoryExecutionContext;
+import org.openrewrite.SourceFile;
+import org.openrewrite.TreeVisitor;
+import org.openrewrite.java.JavaParser;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Throughput of {@link SetMethodsStatic} over already parsed LSTs. Run with the gc profiler (the default of the
+ * jmh task in this build) to also get the allocation rate per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class SetMethodsStaticBenchmark {
+
+    @Param({"MANY_SMALL_CLASSES", "HUGE_CLASS", "DEEP_LAMBDAS", "WIDE_FIELDS"})
+    SyntheticSources shape;
+
+    @Param({"1", "4"})
+    int scale;
+
+    SetMethodsStatic recipe = new SetMethodsStatic(null, null, null, null);
+    List<SourceFile> sourceFiles;
+    SetMethodsStatic.Accumulator scanned;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ExecutionContext ctx = new InMemoryExecutionContext(Throwable::printStackTrace);
+        sourceFiles = JavaParser.fromJavaVersion().build()
+                .parse(ctx, shape.generate(scale))
+                .collect(Collectors.toList());
+
+        scanned = recipe.getInitialValue(ctx);
+        TreeVisitor<?, ExecutionContext> scanner = recipe.getScanner(scanned);
+        for (SourceFile sourceFile : sourceFiles) {
+            scanner.visit(sourceFile, ctx);
+        }
+    }
+
+    /**
+     * The first cycle of a run: every class is analyzed, then edited.
+     */
+    @Benchmark
+    public void firstCycle(Blackhole blackhole) {
+        ExecutionContext ctx = new InMemoryExecutionContext();
+        SetMethodsStatic.Accumulator acc = recipe.getInitialValue(ctx);
+        TreeVisitor<?, ExecutionContext> scanner = recipe.getScanner(acc);
+        for (SourceFile sourceFile : sourceFiles) {
+            scanner.visit(sourceFile, ctx);
+        }
+        TreeVisitor<?, ExecutionContext> visitor = recipe.getVisitor(acc);
+        for (SourceFile sourceFile : sourceFiles) {
+            blackhole.consume(visitor.visit(sourceFile, ctx));
+        }
+    }
+
+    /**
+     * A later cycle over sources that the run has already scanned and that did not change since.
+     */
+    @Benchmark
+    public void unchangedCycle(Blackhole blackhole) {
+        ExecutionContext ctx = new InMemoryExecutionContext();
+        TreeVisitor<?, ExecutionContext> scanner = recipe.getScanner(scanned);
+        for (SourceFile sourceFile : sourceFiles) {
+            scanner.visit(sourceFile, ctx);
+        }
+        TreeVisitor<?, ExecutionContext> visitor = recipe.getVisitor(scanned);
+        for (SourceFile sourceFile : sourceFiles) {
+            blackhole.consume(visitor.visit(sourceFile, ctx));
+        }
+    }
+}
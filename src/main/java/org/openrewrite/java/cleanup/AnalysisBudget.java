@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.java.cleanup;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A limit on the work of the analysis of one compilation unit, in nodes visited, in wall-clock time, or both.
+ * <p>
+ * The analysis spends the budget as it visits nodes, and the budget throws {@link Exceeded} once it is spent,
+ * which unwinds the analysis on the thread that runs it. The clock is only read every {@value #CLOCK_CHECK_INTERVAL}
+ * nodes, so the time limit costs next to nothing on the hot path and is overrun by a few microseconds at most.
+ * Other passes over the compilation unit can be charged to the time limit only, by {@link #tick()}.
+ * A budget belongs to a single compilation unit and a single thread.
+ */
+final class AnalysisBudget {
+    private static final int CLOCK_CHECK_INTERVAL = 1024;
+
+    private final long maxNodes;
+    private final long startNanos;
+    private final long deadlineNanos;
+    private long nodes;
+    private long ticks;
+
+    private AnalysisBudget(long maxNodes, long maxNanos) {
+        this.maxNodes = maxNodes;
+        this.startNanos = System.nanoTime();
+        this.deadlineNanos = maxNanos == Long.MAX_VALUE ? Long.MAX_VALUE : startNanos + maxNanos;
+    }
+
+    /**
+     * @return A budget that starts now, or {@code null} if there is no limit.
+     */
+    @Nullable
+    static AnalysisBudget start(@Nullable Integer maxNodes, @Nullable Integer maxMillis) {
+        if (maxNodes == null && maxMillis == null) {
+            return null;
+        }
+        return new AnalysisBudget(maxNodes == null ? Long.MAX_VALUE : maxNodes,
+                maxMillis == null ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(maxMillis));
+    }
+
+    /**
+     * Spends one node.
+     */
+    void spend() {
+        if (++nodes > maxNodes) {
+            throw new Exceeded("Visited more than " + maxNodes + " nodes");
+        }
+        if ((nodes & (CLOCK_CHECK_INTERVAL - 1)) == 0) {
+            check();
+        }
+    }
+
+    /**
+     * Charges one node of a pass that is not counted in nodes to the time limit.
+     */
+    void tick() {
+        if ((++ticks & (CLOCK_CHECK_INTERVAL - 1)) == 0) {
+            check();
+        }
+    }
+
+    /**
+     * Reads the clock, for work that is not counted in nodes.
+     */
+    void check() {
+        if (deadlineNanos != Long.MAX_VALUE && System.nanoTime() - deadlineNanos > 0) {
+            throw new Exceeded("Ran for more than " + TimeUnit.NANOSECONDS.toMillis(deadlineNanos - startNanos) + " ms");
+        }
+    }
+
+    long getNodes() {
+        return nodes;
+    }
+
+    long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Thrown when the budget is spent. It is part of the control flow of the recipe, so it has no stack trace.
+     */
+    static final class Exceeded extends RuntimeException {
+        Exceeded(String message) {
+            super(message, null, false, false);
+        }
+
+        /**
+         * @return The exception or the first of its causes that is an {@link Exceeded}, if any.
+         */
+        @Nullable
+        static Exceeded causeOf(Throwable t) {
+            for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+                if (cause instanceof Exceeded) {
+                    return (Exceeded) cause;
+                }
+            }
+            return null;
+        }
+    }
+}
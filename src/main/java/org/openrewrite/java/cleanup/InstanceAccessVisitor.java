@@ -0,0 +1,638 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.java.cleanup;
+
+import org.openrewrite.Cursor;
+import org.openrewrite.Tree;
+import org.openrewrite.java.JavaIsoVisitor;
+import org.openrewrite.java.tree.*;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * Finds what the methods of one class access of the instance of that class, and attributes each access to the
+ * innermost enclosing method that subclasses are interested in, its frame.
+ * <p>
+ * Fields and methods are resolved through their type attribution: a field is instance data when it is owned by
+ * a class and not static, whichever class declares it, and a call needs this instance when it invokes an instance
+ * method without a receiver or on this or super. Locals and parameters that share the name of a field do not
+ * count. Identifiers without type attribution are matched against the names in the {@link InstanceMemberIndex}, and
+ * when no field of the class has that name, still count as an access to a field that may be inherited from
+ * a supertype missing from the classpath. So does a field accessed on this or super without attribution, and a call
+ * without attribution is only known by its name, as in the syntactic mode. Instantiating an inner class of the class
+ * needs this instance, too.
+ * <p>
+ * In the syntactic mode, for LSTs parsed without the classpath of their project, type attribution is ignored
+ * altogether. Fields are matched by name, so a local that shadows a field counts as an access to it, and methods
+ * invoked without a receiver or on this are only known by their name, see {@link #methodCalled(int, String, Object)}.
+ * In a class that extends another, a name is also an access to a field that may be inherited, unless it is
+ * a parameter or local in scope, or by the naming conventions of Java a type or a package that qualifies another
+ * name, like Math in {@code Math.max(a, b)}. The parameters and locals in scope are kept on a stack that is
+ * truncated as the traversal leaves the tree that declares them.
+ * <p>
+ * Local and anonymous classes in a method are kept on a chain of {@link ClassScope scopes}. The members of such
+ * a class and of its supertypes, and its own this, belong to its instance and not to the analyzed one, so
+ * they shadow the members of the analyzed class. Everything else such a class accesses is attributed to the
+ * method that declares it.
+ * <p>
+ * The frames of the enclosing methods are kept on a stack that is pushed and popped as the traversal enters
+ * and leaves method declarations, so finding the frame of an identifier does not walk the cursor.
+ * Once a subclass has learned all it needs about a frame, the rest of its body is skipped.
+ */
+abstract class InstanceAccessVisitor<P> extends JavaIsoVisitor<P> {
+    static final int NOT_A_FRAME = -1;
+
+    private final InstanceMemberIndex index;
+    private final boolean syntactic;
+
+    /**
+     * The frame of each enclosing method, innermost last, or {@link #NOT_A_FRAME}.
+     */
+    private int[] frames = new int[8];
+    private int depth;
+
+    /**
+     * The innermost local or anonymous class the traversal is in, or {@code null} outside of any.
+     */
+    @Nullable
+    private ClassScope scope;
+
+    /**
+     * In the syntactic mode, the names of the parameters and locals in scope in the enclosing methods, innermost last.
+     */
+    private String[] locals = new String[16];
+    private int localCount;
+
+    int identifiersVisited;
+    int nodesVisited;
+
+    InstanceAccessVisitor(InstanceMemberIndex index) {
+        this(index, false);
+    }
+
+    InstanceAccessVisitor(InstanceMemberIndex index, boolean syntactic) {
+        this.index = index;
+        this.syntactic = syntactic;
+    }
+
+    /**
+     * @return The frame to attribute the accesses in the body of the method to, or {@link #NOT_A_FRAME} to not
+     * visit the method.
+     */
+    abstract int frame(J.MethodDeclaration method, P p);
+
+    /**
+     * @return {@code true} if no further access in the body of the frame can change what is known about it.
+     */
+    boolean isComplete(int frame, P p) {
+        return false;
+    }
+
+    /**
+     * @param name    The name of an instance field.
+     * @param read    Whether the value of the field is used.
+     * @param written Whether a value is assigned to the field.
+     */
+    abstract void fieldAccessed(int frame, String name, boolean read, boolean written, P p);
+
+    /**
+     * An instance method invoked on this instance, without a receiver or on this or super.
+     */
+    abstract void methodCalled(int frame, JavaType.Method method, P p);
+
+    /**
+     * In the syntactic mode, or when the invocation wasn't attributed, a method invoked without a receiver or on
+     * this, known by its name only. It may be a method of the class or of a supertype, or a statically imported
+     * one, so unless a subclass knows better, it counts as using the instance.
+     */
+    void methodCalled(int frame, String name, P p) {
+        instanceUsed(frame, p);
+    }
+
+    /**
+     * The instance is used other than through one of its members: as a value, through the qualified this of
+     * an enclosing class, or as the enclosing instance of an inner class.
+     */
+    abstract void instanceUsed(int frame, P p);
+
+    @Override
+    public @Nullable J visit(@Nullable Tree tree, P p) {
+        int frame = enclosingFrame();
+        if (frame != NOT_A_FRAME && isComplete(frame, p)) {
+            //the answer for this method is known, the rest of its body can't change it
+            return (J) tree;
+        }
+        if (tree != null) {
+            nodesVisited++;
+        }
+        if (!syntactic || !declaresLocals(tree)) {
+            return super.visit(tree, p);
+        }
+        int enclosingLocals = localCount;
+        try {
+            return super.visit(tree, p);
+        } finally {
+            localCount = enclosingLocals;
+        }
+    }
+
+    /**
+     * @return {@code true} for the trees whose parameters and locals are only in scope in the tree itself.
+     */
+    private static boolean declaresLocals(@Nullable Tree tree) {
+        return tree instanceof J.Block || tree instanceof J.MethodDeclaration || tree instanceof J.Lambda ||
+               tree instanceof J.ForLoop || tree instanceof J.ForEachLoop || tree instanceof J.Try ||
+               tree instanceof J.Try.Catch;
+    }
+
+    @Override
+    public J.VariableDeclarations.NamedVariable visitVariable(J.VariableDeclarations.NamedVariable variable, P p) {
+        J.VariableDeclarations.NamedVariable v = super.visitVariable(variable, p);
+        if (syntactic && depth > 0) {
+            //in scope after its own initializer
+            declareLocal(v.getSimpleName());
+        }
+        return v;
+    }
+
+    @Override
+    public J.InstanceOf visitInstanceOf(J.InstanceOf instanceOf, P p) {
+        J.InstanceOf i = super.visitInstanceOf(instanceOf, p);
+        if (syntactic && depth > 0 && i.getPattern() instanceof J.Identifier) {
+            //in scope where the pattern matched, which is taken to be the rest of the enclosing block
+            declareLocal(((J.Identifier) i.getPattern()).getSimpleName());
+        }
+        return i;
+    }
+
+    private void declareLocal(String name) {
+        if (localCount == locals.length) {
+            locals = Arrays.copyOf(locals, localCount * 2);
+        }
+        locals[localCount++] = name;
+    }
+
+    private boolean isLocal(String name) {
+        for (int i = localCount - 1; i >= 0; i--) {
+            if (locals[i].equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public J.ClassDeclaration visitClassDeclaration(J.ClassDeclaration classDecl, P p) {
+        //local records, enums and interfaces are static, they can't see this instance
+        if (!InstanceMemberIndex.isInnerClass(classDecl)) {
+            return classDecl;
+        }
+        return super.visitClassDeclaration(classDecl, p);
+    }
+
+    @Override
+    public J.Block visitBlock(J.Block block, P p) {
+        Object parent = getCursor().getParentTreeCursor().getValue();
+        ClassScope enclosingScope = scope;
+        if (parent instanceof J.NewClass) {
+            scope = new ClassScope(TypeUtils.asFullyQualified(((J.NewClass) parent).getType()), null, block, enclosingScope);
+        } else if (parent instanceof J.ClassDeclaration) {
+            J.ClassDeclaration local = (J.ClassDeclaration) parent;
+            scope = new ClassScope(local.getType(), local.getSimpleName(), block, enclosingScope);
+        } else {
+            return super.visitBlock(block, p);
+        }
+        try {
+            return super.visitBlock(block, p);
+        } finally {
+            scope = enclosingScope;
+        }
+    }
+
+    @Override
+    public J.MethodDeclaration visitMethodDeclaration(J.MethodDeclaration method, P p) {
+        if (scope != null) {
+            //a method of a local or anonymous class is part of the method that declares the class
+            return super.visitMethodDeclaration(method, p);
+        }
+        int frame = frame(method, p);
+        if (frame == NOT_A_FRAME) {
+            return method;
+        }
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
+        }
+        frames[depth++] = frame;
+        try {
+            return super.visitMethodDeclaration(method, p);
+        } finally {
+            depth--;
+        }
+    }
+
+    @Override
+    public J.MethodInvocation visitMethodInvocation(J.MethodInvocation methodInvocation, P p) {
+        J.MethodInvocation m = super.visitMethodInvocation(methodInvocation, p);
+
+        int frame = enclosingFrame();
+        if (frame == NOT_A_FRAME) {
+            return m;
+        }
+
+        //a call on another object does not need this instance
+        if (m.getSelect() != null && !isThisOrSuper(m.getSelect())) {
+            return m;
+        }
+
+        JavaType.Method type = m.getMethodType();
+        if (syntactic || type == null || type.getDeclaringType() instanceof JavaType.Unknown) {
+            //a call that wasn't attributed, like one to a method inherited from a supertype that isn't on
+            //the classpath, is only known by its name
+            if (m.getSelect() == null) {
+                methodCalled(frame, m.getSimpleName(), p);
+            } else if (!isScopeInstance(m.getSelect())) {
+                //a method invoked on super is never one of the class
+                if (isSuper(m.getSelect())) {
+                    instanceUsed(frame, p);
+                } else {
+                    methodCalled(frame, m.getSimpleName(), p);
+                }
+            }
+            return m;
+        }
+
+        if (type.hasFlags(Flag.Static)) {
+            return m;
+        }
+
+        //nor does a call on the instance of a local or anonymous class
+        if (m.getSelect() == null ? isScopeMember(type.getDeclaringType()) : isScopeInstance(m.getSelect())) {
+            return m;
+        }
+
+        methodCalled(frame, type, p);
+        return m;
+    }
+
+    @Override
+    public J.FieldAccess visitFieldAccess(J.FieldAccess fieldAccess, P p) {
+        J.FieldAccess fa = super.visitFieldAccess(fieldAccess, p);
+
+        int frame = enclosingFrame();
+        if (frame == NOT_A_FRAME) {
+            return fa;
+        }
+
+        if (isThisOrSuper(fa)) {
+            //a qualified this, like Outer.this
+            if (!isReceiver(fa) && !isScopeInstance(fa)) {
+                instanceUsed(frame, p);
+            }
+        } else if (isThisOrSuper(fa.getTarget()) && !isScopeInstance(fa.getTarget()) && isInstanceField(fa)) {
+            accessed(frame, fa, fa.getSimpleName(), p);
+        }
+        return fa;
+    }
+
+    @Override
+    public J.NewClass visitNewClass(J.NewClass newClass, P p) {
+        J.NewClass n = super.visitNewClass(newClass, p);
+
+        //an inner class is instantiated with this instance as its enclosing instance, unless another one is given
+        int frame = enclosingFrame();
+        if (frame != NOT_A_FRAME && n.getEnclosing() == null && isInnerClass(n.getClazz())) {
+            instanceUsed(frame, p);
+        }
+        return n;
+    }
+
+    @Override
+    public J.Identifier visitIdentifier(J.Identifier identifier, P p) {
+        identifiersVisited++;
+        int frame = enclosingFrame();
+        if (frame == NOT_A_FRAME) {
+            return identifier;
+        }
+
+        if (isThisOrSuper(identifier)) {
+            //the instance itself is used as a value, unless it is the receiver of a field access or call
+            if (isReference(identifier) && !isReceiver(identifier) && scope == null) {
+                instanceUsed(frame, p);
+            }
+        } else if (isReference(identifier) && isInstanceField(identifier)) {
+            accessed(frame, identifier, identifier.getSimpleName(), p);
+        }
+        return identifier;
+    }
+
+    /**
+     * Tells reads from writes by the parent of the expression, which is the current cursor.
+     */
+    private void accessed(int frame, Expression field, String name, P p) {
+        Object parent = getCursor().getParentTreeCursor().getValue();
+        if (parent instanceof J.Assignment && ((J.Assignment) parent).getVariable() == field) {
+            fieldAccessed(frame, name, false, true, p);
+        } else if (parent instanceof J.AssignmentOperation && ((J.AssignmentOperation) parent).getVariable() == field) {
+            fieldAccessed(frame, name, true, true, p);
+        } else if (parent instanceof J.Unary && isModifying(((J.Unary) parent).getOperator())) {
+            fieldAccessed(frame, name, true, true, p);
+        } else {
+            fieldAccessed(frame, name, true, false, p);
+        }
+    }
+
+    private static boolean isModifying(J.Unary.Type operator) {
+        switch (operator) {
+            case PreIncrement:
+            case PreDecrement:
+            case PostIncrement:
+            case PostDecrement:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Names of fields accessed on a target, of invoked, referenced or declared methods, of declared variables and
+     * labels, and names in the position of a type are not references to a variable in scope.
+     */
+    private boolean isReference(J.Identifier identifier) {
+        Cursor parentCursor = getCursor().getParentTreeCursor();
+        Object parent = parentCursor.getValue();
+        if (parent instanceof J.MethodDeclaration || parent instanceof J.ClassDeclaration ||
+            parent instanceof J.ParameterizedType || parent instanceof J.ArrayType ||
+            parent instanceof J.TypeParameter || parent instanceof J.Annotation) {
+            return false;
+        } else if (parent instanceof J.VariableDeclarations) {
+            return ((J.VariableDeclarations) parent).getTypeExpression() != identifier;
+        } else if (parent instanceof J.NewClass) {
+            return ((J.NewClass) parent).getClazz() != identifier;
+        } else if (parent instanceof J.InstanceOf) {
+            return ((J.InstanceOf) parent).getClazz() != identifier && ((J.InstanceOf) parent).getPattern() != identifier;
+        } else if (parent instanceof J.ControlParentheses) {
+            return !(parentCursor.getParentTreeCursor().getValue() instanceof J.TypeCast);
+        } else if (parent instanceof J.FieldAccess) {
+            return ((J.FieldAccess) parent).getName() != identifier;
+        } else if (parent instanceof J.MethodInvocation) {
+            return ((J.MethodInvocation) parent).getName() != identifier;
+        } else if (parent instanceof J.MemberReference) {
+            return ((J.MemberReference) parent).getReference() != identifier;
+        } else if (parent instanceof J.VariableDeclarations.NamedVariable) {
+            return ((J.VariableDeclarations.NamedVariable) parent).getName() != identifier;
+        } else if (parent instanceof J.Label || parent instanceof J.Break || parent instanceof J.Continue) {
+            return false;
+        } else if (parent instanceof J.Assignment) {
+            //the name of an annotation argument, like value in @SuppressWarnings(value = "unused")
+            return ((J.Assignment) parent).getVariable() != identifier ||
+                   !(parentCursor.getParentTreeCursor().getValue() instanceof J.Annotation);
+        }
+        return true;
+    }
+
+    /**
+     * Field accesses and method invocations on this or super are decided where the field or method is known.
+     */
+    private boolean isReceiver(Expression thisOrSuper) {
+        Object parent = getCursor().getParentTreeCursor().getValue();
+        if (parent instanceof J.FieldAccess) {
+            return ((J.FieldAccess) parent).getTarget() == thisOrSuper;
+        } else if (parent instanceof J.MethodInvocation) {
+            return ((J.MethodInvocation) parent).getSelect() == thisOrSuper;
+        }
+        return false;
+    }
+
+    private boolean isInstanceField(J.Identifier name) {
+        JavaType.Variable fieldType = syntactic ? null : name.getFieldType();
+        if (fieldType != null) {
+            return isInstanceField(fieldType);
+        }
+
+        //without type attribution, check if the name matches an instance variable of the class,
+        //unless a local or anonymous class declares a field with that name
+        for (ClassScope s = scope; s != null; s = s.enclosing) {
+            if (s.index().declaresField(name.getSimpleName())) {
+                return false;
+            }
+        }
+        if (index.hasField(name.getSimpleName())) {
+            return true;
+        } else if (syntactic) {
+            //any other name may be a field inherited from a superclass, unless it is declared in the method
+            return index.mayInheritFields() && !isLocal(name.getSimpleName()) && !isConventionalQualifier(name);
+        }
+
+        //a name that is attributed but not as a variable is a type, one that is not attributed at all may be
+        //a field inherited from a supertype that isn't on the classpath, unless it qualifies the name of a type
+        return !isAttributed(name.getType()) && !isQualifier(name);
+    }
+
+    /**
+     * A field accessed on this or super is always one of the instance when it isn't attributed, whether the class
+     * declares it or inherits it.
+     */
+    private boolean isInstanceField(J.FieldAccess fieldAccess) {
+        JavaType.Variable fieldType = syntactic ? null : fieldAccess.getName().getFieldType();
+        return fieldType == null || isInstanceField(fieldType);
+    }
+
+    private boolean isInstanceField(JavaType.Variable fieldType) {
+        //locals and parameters are owned by their method, not by a class
+        return fieldType.getOwner() instanceof JavaType.FullyQualified && !fieldType.hasFlags(Flag.Static) &&
+               !isScopeMember((JavaType.FullyQualified) fieldType.getOwner());
+    }
+
+    private static boolean isAttributed(@Nullable JavaType type) {
+        return type != null && !(type instanceof JavaType.Unknown);
+    }
+
+    /**
+     * @return {@code true} if the identifier is a package or a type in the qualified name of a type, like java in
+     * {@code java.util.List}, which the parser doesn't attribute.
+     */
+    private boolean isQualifier(J.Identifier name) {
+        Cursor cursor = getCursor().getParentTreeCursor();
+        J qualified = name;
+        while (cursor.getValue() instanceof J.FieldAccess && ((J.FieldAccess) cursor.getValue()).getTarget() == qualified) {
+            qualified = cursor.getValue();
+            cursor = cursor.getParentTreeCursor();
+        }
+        if (qualified == name) {
+            return false;
+        }
+        J.FieldAccess type = (J.FieldAccess) qualified;
+        return type.getName().getFieldType() == null && isAttributed(type.getType());
+    }
+
+    /**
+     * @return {@code true} if the identifier qualifies a name, and it or one of the names it is qualified with
+     * starts with an upper case letter, like Math in {@code Math.max(a, b)} or java in {@code java.util.List}. By the
+     * naming conventions of Java, it is then a package or a type.
+     */
+    private boolean isConventionalQualifier(J.Identifier name) {
+        Cursor cursor = getCursor().getParentTreeCursor();
+        J qualified = name;
+        boolean typeName = isTypeName(name.getSimpleName());
+        while (cursor.getValue() instanceof J.FieldAccess && ((J.FieldAccess) cursor.getValue()).getTarget() == qualified) {
+            qualified = cursor.getValue();
+            typeName |= isTypeName(((J.FieldAccess) qualified).getSimpleName());
+            cursor = cursor.getParentTreeCursor();
+        }
+        Object parent = cursor.getValue();
+        boolean qualifier = qualified != name ||
+                            parent instanceof J.MethodInvocation && ((J.MethodInvocation) parent).getSelect() == name ||
+                            parent instanceof J.MemberReference && ((J.MemberReference) parent).getContaining() == name;
+        return qualifier && typeName;
+    }
+
+    private static boolean isTypeName(String name) {
+        return !name.isEmpty() && Character.isUpperCase(name.charAt(0));
+    }
+
+    private boolean isInnerClass(@Nullable J clazz) {
+        if (clazz instanceof J.ParameterizedType) {
+            clazz = ((J.ParameterizedType) clazz).getClazz();
+        }
+        if (clazz instanceof J.Identifier) {
+            J.Identifier name = (J.Identifier) clazz;
+            return index.isInnerClass(syntactic ? null : TypeUtils.asFullyQualified(name.getType()), name.getSimpleName());
+        } else if (clazz instanceof J.FieldAccess) {
+            J.FieldAccess name = (J.FieldAccess) clazz;
+            return index.isInnerClass(syntactic ? null : TypeUtils.asFullyQualified(name.getType()), name.getSimpleName());
+        }
+        return false;
+    }
+
+    /**
+     * @return {@code true} if a local or anonymous class the traversal is in declares or inherits the member.
+     */
+    private boolean isScopeMember(@Nullable JavaType.FullyQualified owner) {
+        if (owner == null || scope == null) {
+            return false;
+        }
+        //every class inherits from Object, even if the supertypes of an anonymous class are only its interface
+        if ("java.lang.Object".equals(owner.getFullyQualifiedName())) {
+            return true;
+        }
+        for (ClassScope s = scope; s != null; s = s.enclosing) {
+            if (inherits(s.type, owner.getFullyQualifiedName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return {@code true} if this or super, qualified or not, is the instance of a local or anonymous class.
+     */
+    private boolean isScopeInstance(Expression thisOrSuper) {
+        if (scope == null) {
+            return false;
+        }
+        if (!(thisOrSuper instanceof J.FieldAccess)) {
+            return true;
+        }
+        Expression qualifier = ((J.FieldAccess) thisOrSuper).getTarget();
+        if (qualifier instanceof J.Identifier) {
+            for (ClassScope s = scope; s != null; s = s.enclosing) {
+                if (((J.Identifier) qualifier).getSimpleName().equals(s.name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean inherits(@Nullable JavaType.FullyQualified type, String fullyQualifiedName) {
+        if (type == null) {
+            return false;
+        }
+        if (fullyQualifiedName.equals(type.getFullyQualifiedName()) ||
+            inherits(type.getSupertype(), fullyQualifiedName)) {
+            return true;
+        }
+        for (JavaType.FullyQualified anInterface : type.getInterfaces()) {
+            if (inherits(anInterface, fullyQualifiedName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isThisOrSuper(Expression expression) {
+        String name;
+        if (expression instanceof J.Identifier) {
+            name = ((J.Identifier) expression).getSimpleName();
+        } else if (expression instanceof J.FieldAccess) {
+            name = ((J.FieldAccess) expression).getSimpleName();
+        } else {
+            return false;
+        }
+        return "this".equals(name) || "super".equals(name);
+    }
+
+    private static boolean isSuper(Expression expression) {
+        if (expression instanceof J.Identifier) {
+            return "super".equals(((J.Identifier) expression).getSimpleName());
+        }
+        return expression instanceof J.FieldAccess && "super".equals(((J.FieldAccess) expression).getSimpleName());
+    }
+
+    private int enclosingFrame() {
+        return depth == 0 ? NOT_A_FRAME : frames[depth - 1];
+    }
+
+    /**
+     * A local or anonymous class in the body of a method, linked to the one it is nested in, if any.
+     * The index of its fields is only needed for identifiers without type attribution, so it is built on first use,
+     * once for the whole traversal of the class body.
+     */
+    private static final class ClassScope {
+        @Nullable
+        final JavaType.FullyQualified type;
+
+        /**
+         * The simple name of a local class, or {@code null} for an anonymous class.
+         */
+        @Nullable
+        final String name;
+
+        private final J.Block body;
+
+        @Nullable
+        final ClassScope enclosing;
+
+        @Nullable
+        private InstanceMemberIndex index;
+
+        ClassScope(@Nullable JavaType.FullyQualified type, @Nullable String name, J.Block body,
+                   @Nullable ClassScope enclosing) {
+            this.type = type;
+            this.name = name;
+            this.body = body;
+            this.enclosing = enclosing;
+        }
+
+        InstanceMemberIndex index() {
+            if (index == null) {
+                index = InstanceMemberIndex.build(body);
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.java.cleanup;
+
+import org.openrewrite.java.tree.J;
+import org.openrewrite.java.tree.JavaType;
+import org.openrewrite.java.tree.Statement;
+
+import javax.annotation.Nullable;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The instance fields declared directly in the body of a class, for identifiers without type attribution,
+ * and the inner classes it declares, which can only be instantiated with an instance of the class.
+ * <p>
+ * The index of an inner class links to the index of its enclosing class, whose instance fields are in scope in the
+ * inner class, too. Each index is built once from its own body, and lookups walk the chain of enclosing indexes.
+ * <p>
+ * An index is immutable. It only holds a weak reference to the class body it was built from,
+ * so it can tell whether it still describes a class without keeping old LSTs reachable.
+ */
+final class InstanceMemberIndex {
+    private final WeakReference<J.Block> body;
+    private final Set<String> fields;
+
+    /**
+     * The fully qualified and the simple names of the inner classes.
+     */
+    private final Set<String> innerClasses;
+
+    private final boolean serializable;
+
+    /**
+     * Whether the class extends another class, whose instance fields aren't known by name.
+     */
+    private final boolean extendsClass;
+
+    @Nullable
+    private final InstanceMemberIndex outer;
+
+    private InstanceMemberIndex(J.Block body, Set<String> fields, Set<String> innerClasses, boolean serializable,
+                                boolean extendsClass, @Nullable InstanceMemberIndex outer) {
+        this.body = new WeakReference<>(body);
+        this.fields = fields;
+        this.innerClasses = innerClasses;
+        this.serializable = serializable;
+        this.extendsClass = extendsClass;
+        this.outer = outer;
+    }
+
+    /**
+     * @param serializableTypes Decides whether the class is Serializable, or {@code null} when it doesn't matter.
+     * @param outer             The index of the enclosing class, if the class is an inner class.
+     */
+    static InstanceMemberIndex build(J.ClassDeclaration classDecl, @Nullable SerializableTypes serializableTypes,
+                                     @Nullable InstanceMemberIndex outer) {
+        boolean serializable = serializableTypes != null && serializableTypes.isSerializable(classDecl);
+
+        Set<String> fields = null;
+        Set<String> innerClasses = null;
+        //the fields of an interface are implicitly static, and so are its member classes
+        if (classDecl.getKind() != J.ClassDeclaration.Kind.Type.Interface) {
+            //record components are instance fields, too
+            fields = addFields(null, classDecl.getPrimaryConstructor());
+            fields = addFields(fields, classDecl.getBody().getStatements());
+
+            for (Statement s : classDecl.getBody().getStatements()) {
+                if (s instanceof J.ClassDeclaration && isInnerClass((J.ClassDeclaration) s)) {
+                    J.ClassDeclaration inner = (J.ClassDeclaration) s;
+                    if (innerClasses == null) {
+                        innerClasses = new HashSet<>();
+                    }
+                    innerClasses.add(inner.getSimpleName());
+                    if (inner.getType() != null) {
+                        innerClasses.add(inner.getType().getFullyQualifiedName());
+                    }
+                }
+            }
+        }
+
+        return new InstanceMemberIndex(
+                classDecl.getBody(),
+                fields == null ? Collections.emptySet() : Collections.unmodifiableSet(fields),
+                innerClasses == null ? Collections.emptySet() : Collections.unmodifiableSet(innerClasses),
+                serializable,
+                classDecl.getExtends() != null,
+                outer
+        );
+    }
+
+    /**
+     * The index of the body of an anonymous or local class.
+     */
+    static InstanceMemberIndex build(J.Block body) {
+        Set<String> fields = addFields(null, body.getStatements());
+        return new InstanceMemberIndex(body, fields == null ? Collections.emptySet() : fields,
+                Collections.emptySet(), false, false, null);
+    }
+
+    @Nullable
+    private static Set<String> addFields(@Nullable Set<String> fields, @Nullable List<Statement> statements) {
+        if (statements == null) {
+            return fields;
+        }
+        for (Statement s : statements) {
+            if (s instanceof J.VariableDeclarations) {
+                J.VariableDeclarations vd = (J.VariableDeclarations) s;
+                if (vd.hasModifier(J.Modifier.Type.Static)) {
+                    continue;
+                }
+                if (fields == null) {
+                    fields = new HashSet<>();
+                }
+                for (J.VariableDeclarations.NamedVariable v : vd.getVariables()) {
+                    fields.add(v.getSimpleName());
+                }
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * @return {@code true} for a class that is not static, whether explicitly or implicitly, so that it has an
+     * enclosing instance when it is a member of another class.
+     */
+    static boolean isInnerClass(J.ClassDeclaration classDecl) {
+        return classDecl.getKind() == J.ClassDeclaration.Kind.Type.Class &&
+               !classDecl.hasModifier(J.Modifier.Type.Static);
+    }
+
+    /**
+     * @return {@code true} if this index was built from the current body of the class, within the same chain of
+     * enclosing indexes. LSTs are immutable, so an unchanged body means the index is still accurate.
+     */
+    boolean isIndexOf(J.ClassDeclaration classDecl, @Nullable InstanceMemberIndex outer) {
+        return body.get() == classDecl.getBody() && this.outer == outer;
+    }
+
+    /**
+     * @return {@code true} if the class or, for an inner class, one of its enclosing classes declares an instance
+     * field with this name.
+     */
+    boolean hasField(String name) {
+        for (InstanceMemberIndex index = this; index != null; index = index.outer) {
+            if (index.fields.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return {@code true} if the class or, for an inner class, one of its enclosing classes extends another class,
+     * so that it may inherit instance fields that are only known with type attribution.
+     */
+    boolean mayInheritFields() {
+        for (InstanceMemberIndex index = this; index != null; index = index.outer) {
+            if (index.extendsClass) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return {@code true} if the class itself declares an instance field with this name.
+     */
+    boolean declaresField(String name) {
+        return fields.contains(name);
+    }
+
+    /**
+     * @param type The attributed type of an instantiated class, if any.
+     * @param name The simple name the instantiated class is referred to by.
+     * @return {@code true} if the class or, for an inner class, one of its enclosing classes declares the
+     * instantiated class as an inner class.
+     */
+    boolean isInnerClass(@Nullable JavaType.FullyQualified type, String name) {
+        String key = type == null ? name : type.getFullyQualifiedName();
+        for (InstanceMemberIndex index = this; index != null; index = index.outer) {
+            if (index.innerClasses.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isSerializable() {
+        return serializable;
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.java.cleanup;
+
+import lombok.Value;
+import org.openrewrite.ExecutionContext;
+import org.openrewrite.Tree;
+import org.openrewrite.java.tree.J;
+import org.openrewrite.java.tree.JavaType;
+import org.openrewrite.java.tree.Statement;
+
+import javax.annotation.Nullable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * Which instance members of its class each method and constructor of a compilation unit reads, writes or calls,
+ * for recipes that need to know how the instance is used, like making methods static or finding fields that are
+ * never read or could be final.
+ * <p>
+ * The usage of a compilation unit is computed once and kept in the {@link ExecutionContext}, so the recipes of
+ * a composite that run on the same LST share it. It is computed again for a new version of the compilation unit,
+ * and the usage of a compilation unit that is no longer reachable is dropped. Only the methods of top-level and
+ * member classes are covered, the accesses in local and anonymous classes count for the method that declares them.
+ * See {@link InstanceAccessVisitor} for what counts as an access.
+ */
+public final class InstanceMemberUsage {
+    private static final String KEY = InstanceMemberUsage.class.getName();
+
+    private final Map<UUID, Usage> usages;
+
+    private InstanceMemberUsage(Map<UUID, Usage> usages) {
+        this.usages = usages;
+    }
+
+    /**
+     * @return The usage of the compilation unit, computed by an earlier call with the same LST if there was one.
+     */
+    public static InstanceMemberUsage of(J.CompilationUnit cu, ExecutionContext ctx) {
+        return of(cu, ctx, null, null);
+    }
+
+    /**
+     * @param budget The budget of the compilation unit, spent by every node visited if the usage is computed.
+     * @param stats  The stats to count the identifiers and nodes visited in, if the usage is computed.
+     * @throws AnalysisBudget.Exceeded When the budget is spent, in which case nothing is cached.
+     */
+    static InstanceMemberUsage of(J.CompilationUnit cu, ExecutionContext ctx, @Nullable AnalysisBudget budget,
+                                  @Nullable SetMethodsStaticStats stats) {
+        Cache cache = cache(ctx);
+        InstanceMemberUsage usage = cache.get(cu);
+        if (usage == null) {
+            //two threads may compute the usage of the same compilation unit, and the last one wins
+            usage = analyze(cu, budget, stats);
+            cache.put(cu, usage);
+        }
+        return usage;
+    }
+
+    /**
+     * @return The usage of the compilation unit if it was already computed for this LST, without computing it.
+     */
+    @Nullable
+    static InstanceMemberUsage cached(J.CompilationUnit cu, ExecutionContext ctx) {
+        return cache(ctx).get(cu);
+    }
+
+    /**
+     * @return The usage of the method, or {@code null} if the method is not declared by a top-level or member class
+     * of the compilation unit.
+     */
+    @Nullable
+    public Usage getUsage(J.MethodDeclaration method) {
+        return usages.get(method.getId());
+    }
+
+    @Value
+    public static class Usage {
+        private static final Usage NONE = new Usage(Collections.emptySet(), Collections.emptySet(),
+                Collections.emptySet(), false);
+
+        /**
+         * The names of the instance fields whose value is used.
+         */
+        Set<String> fieldsRead;
+
+        /**
+         * The names of the instance fields a value is assigned to, including by an increment or a compound
+         * assignment, which read the field, too.
+         */
+        Set<String> fieldsWritten;
+
+        /**
+         * The instance methods invoked on this instance, without a receiver or on this or super.
+         */
+        Set<JavaType.Method> methodsCalled;
+
+        /**
+         * Whether the instance is used other than through one of its members: as a value, through the qualified
+         * this of an enclosing class, or as the enclosing instance of an inner class.
+         */
+        boolean instanceUsed;
+
+        /**
+         * @return {@code true} if the method reads or writes an instance field or uses the instance. The methods
+         * it calls may access instance data, too.
+         */
+        public boolean accessesInstanceData() {
+            return instanceUsed || !fieldsRead.isEmpty() || !fieldsWritten.isEmpty();
+        }
+    }
+
+    private static InstanceMemberUsage analyze(J.CompilationUnit cu, @Nullable AnalysisBudget budget,
+                                               @Nullable SetMethodsStaticStats stats) {
+        Map<UUID, Usage> usages = new HashMap<>();
+        for (J.ClassDeclaration classDecl : cu.getClasses()) {
+            analyze(classDecl, null, usages, budget, stats);
+        }
+        return new InstanceMemberUsage(usages);
+    }
+
+    private static void analyze(J.ClassDeclaration classDecl, @Nullable InstanceMemberIndex outer,
+                                Map<UUID, Usage> usages, @Nullable AnalysisBudget budget,
+                                @Nullable SetMethodsStaticStats stats) {
+        InstanceMemberIndex index = InstanceMemberIndex.build(classDecl, null, outer);
+        UsageVisitor visitor = null;
+        for (Statement s : classDecl.getBody().getStatements()) {
+            if (s instanceof J.MethodDeclaration) {
+                if (visitor == null) {
+                    visitor = new UsageVisitor(index, budget);
+                }
+                Builder usage = new Builder();
+                visitor.visit(s, usage);
+                usages.put(s.getId(), usage.build());
+            } else if (s instanceof J.ClassDeclaration) {
+                J.ClassDeclaration member = (J.ClassDeclaration) s;
+                boolean inner = InstanceMemberIndex.isInnerClass(member) &&
+                                classDecl.getKind() != J.ClassDeclaration.Kind.Type.Interface;
+                analyze(member, inner ? index : null, usages, budget, stats);
+            }
+        }
+        if (visitor != null && stats != null) {
+            stats.usageAnalyzed(visitor.identifiersVisited, visitor.nodesVisited);
+        }
+    }
+
+    private static Cache cache(ExecutionContext ctx) {
+        return ctx.computeMessageIfAbsent(KEY, k -> new Cache());
+    }
+
+    /**
+     * Every method is visited on its own, so there is a single frame.
+     */
+    private static class UsageVisitor extends InstanceAccessVisitor<Builder> {
+        @Nullable
+        private final AnalysisBudget budget;
+
+        UsageVisitor(InstanceMemberIndex index, @Nullable AnalysisBudget budget) {
+            super(index);
+            this.budget = budget;
+        }
+
+        @Override
+        public @Nullable J visit(@Nullable Tree tree, Builder usage) {
+            if (budget != null && tree != null) {
+                budget.spend();
+            }
+            return super.visit(tree, usage);
+        }
+
+        @Override
+        int frame(J.MethodDeclaration method, Builder usage) {
+            return 0;
+        }
+
+        @Override
+        void fieldAccessed(int frame, String name, boolean read, boolean written, Builder usage) {
+            if (read) {
+                usage.fieldsRead = add(usage.fieldsRead, name);
+            }
+            if (written) {
+                usage.fieldsWritten = add(usage.fieldsWritten, name);
+            }
+        }
+
+        @Override
+        void methodCalled(int frame, JavaType.Method method, Builder usage) {
+            usage.methodsCalled = add(usage.methodsCalled, method);
+        }
+
+        @Override
+        void instanceUsed(int frame, Builder usage) {
+            usage.instanceUsed = true;
+        }
+
+        private static <T> Set<T> add(@Nullable Set<T> set, T element) {
+            if (set == null) {
+                set = new HashSet<>();
+            }
+            set.add(element);
+            return set;
+        }
+    }
+
+    private static class Builder {
+        @Nullable
+        Set<String> fieldsRead;
+
+        @Nullable
+        Set<String> fieldsWritten;
+
+        @Nullable
+        Set<JavaType.Method> methodsCalled;
+
+        boolean instanceUsed;
+
+        Usage build() {
+            if (fieldsRead == null && fieldsWritten == null && methodsCalled == null && !instanceUsed) {
+                return Usage.NONE;
+            }
+            return new Usage(
+                    fieldsRead == null ? Collections.emptySet() : Collections.unmodifiableSet(fieldsRead),
+                    fieldsWritten == null ? Collections.emptySet() : Collections.unmodifiableSet(fieldsWritten),
+                    methodsCalled == null ? Collections.emptySet() : Collections.unmodifiableSet(methodsCalled),
+                    instanceUsed
+            );
+        }
+    }
+
+    /**
+     * The usages by the id of their compilation unit. An entry only holds its compilation unit weakly, and is only
+     * valid for the very LST it was computed from. Entries whose compilation unit was collected are expunged on every
+     * access.
+     */
+    private static class Cache {
+        private final Map<UUID, Entry> entries = new HashMap<>();
+        private final ReferenceQueue<J.CompilationUnit> collected = new ReferenceQueue<>();
+
+        @Nullable
+        synchronized InstanceMemberUsage get(J.CompilationUnit cu) {
+            expunge();
+            Entry entry = entries.get(cu.getId());
+            return entry != null && entry.get() == cu ? entry.usage : null;
+        }
+
+        synchronized void put(J.CompilationUnit cu, InstanceMemberUsage usage) {
+            expunge();
+            //replaces, and so evicts, the usage of an earlier version of the compilation unit
+            entries.put(cu.getId(), new Entry(cu, usage, collected));
+        }
+
+        private void expunge() {
+            for (Reference<? extends J.CompilationUnit> ref; (ref = collected.poll()) != null; ) {
+                Entry entry = (Entry) ref;
+                entries.remove(entry.id, entry);
+            }
+        }
+    }
+
+    private static class Entry extends WeakReference<J.CompilationUnit> {
+        final UUID id;
+        final InstanceMemberUsage usage;
+
+        Entry(J.CompilationUnit cu, InstanceMemberUsage usage, ReferenceQueue<J.CompilationUnit> queue) {
+            super(cu, queue);
+            this.id = cu.getId();
+            this.usage = usage;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.java.cleanup;
+
+import org.openrewrite.java.tree.JavaType;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interned keys that identify a method across source files, of the form {@code declaring.Type#name/arity}.
+ * <p>
+ * A key leaves out the parameter types, because the parameter types of an invocation of a generic method are not
+ * always those of its declaration. Overloads with the same number of parameters share a key, and whatever is
+ * decided for a key has to hold for all of them. Each distinct key is held once, however many call sites refer to it.
+ * <p>
+ * Without type attribution, methods are only known by their name, and a key of the form {@code #name} stands for
+ * every method of that name, in any type and with any number of parameters.
+ */
+final class MethodKeys {
+    private final Map<String, String> keys = new ConcurrentHashMap<>();
+
+    @Nullable
+    String key(@Nullable JavaType.Method method) {
+        if (method == null || method.getDeclaringType() instanceof JavaType.Unknown) {
+            return null;
+        }
+        return intern(method.getDeclaringType().getFullyQualifiedName() + '#' + method.getName() + '/' +
+                      method.getParameterTypes().size());
+    }
+
+    String nameKey(String name) {
+        return intern('#' + name);
+    }
+
+    private String intern(String key) {
+        String interned = keys.putIfAbsent(key, key);
+        return interned == null ? key : interned;
+    }
+}
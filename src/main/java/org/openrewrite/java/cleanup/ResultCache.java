@@ -0,0 +1,267 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.java.cleanup;
+
+import lombok.Value;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The outcome of {@link SetMethodsStatic} for each source file of a previous run, keyed by the hash of the content
+ * the run left the file with. A file whose content still has that hash was already processed and is skipped.
+ * Along with the methods it made static, the entry of a file keeps what the file tells other files about
+ * their methods: the keys of the methods it references as method references and of those it invokes on other
+ * objects, so that a skipped file still takes part in the decisions about other files.
+ * <p>
+ * The outcome for a file also depends on what other files do with its methods. The entry keeps the keys of the
+ * methods the file leaves as candidates, and a hash of which of them the whole run references as method references
+ * or invokes on other objects, see {@link #dependencies}. Once every file is scanned, an entry whose hash is no
+ * longer the same is stale, although the content of its file is.
+ * <p>
+ * The previous run is read from a memory-mapped index file. Only the offsets of its entries are read eagerly,
+ * the methods of an entry are decoded when the entry is looked up. The outcomes of the current run, including the
+ * entries that were reused, are written to a new index file by {@link #save()}, which then replaces the old one.
+ * <p>
+ * An index that was written by another version of this format or by a differently configured recipe is ignored.
+ */
+final class ResultCache {
+    private static final int MAGIC = 0x534d5343;
+    private static final int VERSION = 3;
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final Path file;
+    private final long fingerprint;
+
+    @Nullable
+    private final ByteBuffer previous;
+
+    /**
+     * The offset of the entry of each source path in {@link #previous}.
+     */
+    private final Map<String, Integer> offsets;
+
+    private final Map<String, Entry> current = new ConcurrentHashMap<>();
+
+    private ResultCache(Path file, long fingerprint, @Nullable ByteBuffer previous, Map<String, Integer> offsets) {
+        this.file = file;
+        this.fingerprint = fingerprint;
+        this.previous = previous;
+        this.offsets = offsets;
+    }
+
+    /**
+     * @param file        The index file, which does not need to exist yet.
+     * @param fingerprint Identifies the configuration of the recipe that produced the outcomes.
+     */
+    static ResultCache load(Path file, String fingerprint) throws IOException {
+        long fp = hash(fingerprint.getBytes(StandardCharsets.UTF_8));
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return new ResultCache(file, fp, null, Collections.emptyMap());
+        }
+
+        try {
+            if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION || mapped.getLong() != fp) {
+                return new ResultCache(file, fp, null, Collections.emptyMap());
+            }
+            int count = mapped.getInt();
+            Map<String, Integer> offsets = new HashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                String path = readString(mapped);
+                offsets.put(path, mapped.position());
+                mapped.position(mapped.position() + 2 * Long.BYTES);
+                for (int list = 0; list < 4; list++) {
+                    int strings = mapped.getInt();
+                    for (int j = 0; j < strings; j++) {
+                        int length = mapped.getInt();
+                        mapped.position(mapped.position() + length);
+                    }
+                }
+            }
+            return new ResultCache(file, fp, mapped, offsets);
+        } catch (RuntimeException e) {
+            //a truncated or otherwise corrupt index is as good as no index
+            return new ResultCache(file, fp, null, Collections.emptyMap());
+        }
+    }
+
+    /**
+     * @return The first 64 bits of the SHA-256 digest of the content.
+     */
+    static long hash(byte[] content) {
+        MessageDigest digest = SHA_256.get();
+        digest.reset();
+        return ByteBuffer.wrap(digest.digest(content)).getLong();
+    }
+
+    /**
+     * @param candidates The keys of the methods that a source file leaves as candidates.
+     * @param referenced The keys of the methods referenced as method references anywhere in the run.
+     * @param called     The keys of the methods invoked on other objects anywhere in the run.
+     * @return The first 64 bits of the SHA-256 digest of which candidates are referenced or invoked.
+     */
+    static long dependencies(Collection<String> candidates, Set<String> referenced, Set<String> called) {
+        MessageDigest digest = SHA_256.get();
+        digest.reset();
+        for (String candidate : candidates) {
+            digest.update(candidate.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) ((referenced.contains(candidate) ? 1 : 0) | (called.contains(candidate) ? 2 : 0)));
+        }
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    /**
+     * @return The outcome for the file when it was left with this content, or {@code null} if the file has to be
+     * processed. The outcome is stale if its {@link Entry#getDependencies() dependencies} have changed since.
+     */
+    @Nullable
+    Entry lookup(String sourcePath, long hash) {
+        Integer offset = offsets.get(sourcePath);
+        if (offset == null || previous == null || previous.getLong(offset) != hash) {
+            return null;
+        }
+
+        ByteBuffer entry = previous.duplicate();
+        entry.position(offset + Long.BYTES);
+        return new Entry(hash, entry.getLong(), readStrings(entry), readStrings(entry), readStrings(entry),
+                readStrings(entry));
+    }
+
+    /**
+     * Records the outcome for the content a source file is left with by the current run.
+     */
+    void record(String sourcePath, Entry entry) {
+        current.put(sourcePath, entry);
+    }
+
+    /**
+     * Writes the outcomes recorded by the current run, replacing the index of the previous run.
+     */
+    void save() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            List<String> paths = new ArrayList<>(current.keySet());
+            Collections.sort(paths);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(fingerprint);
+                out.writeInt(paths.size());
+                for (String path : paths) {
+                    Entry entry = current.get(path);
+                    writeString(out, path);
+                    out.writeLong(entry.hash);
+                    out.writeLong(entry.dependencies);
+                    writeStrings(out, entry.staticMethods);
+                    writeStrings(out, entry.methodReferences);
+                    writeStrings(out, entry.callSites);
+                    writeStrings(out, entry.candidates);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static Collection<String> readStrings(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(readString(buffer));
+        }
+        return strings;
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            writeString(out, s);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Value
+    static class Entry {
+        long hash;
+
+        /**
+         * Which of the candidates the run references or invokes, see {@link #dependencies}.
+         */
+        long dependencies;
+
+        /**
+         * The signatures of the methods that were made static.
+         */
+        Collection<String> staticMethods;
+
+        /**
+         * The keys of the methods referenced as method references, see {@link MethodKeys}.
+         */
+        Collection<String> methodReferences;
+
+        /**
+         * The keys of the final or private methods invoked on other objects.
+         */
+        Collection<String> callSites;
+
+        /**
+         * The keys of the final or private instance methods the file declares.
+         */
+        Collection<String> candidates;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.java.cleanup;
+
+import org.openrewrite.java.tree.*;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decides whether classes are Serializable, directly or through any of their supertypes.
+ * <p>
+ * A supertype that is not on the classpath may be Serializable, so a hierarchy that can't be walked to its end is
+ * taken to be Serializable. That only keeps the serialization hooks of the class as they are.
+ * <p>
+ * The answers for supertypes are kept in a bounded LRU cache keyed by fully qualified name, so a hierarchy that
+ * many classes of a run extend is walked once. Only the answers for fully resolved hierarchies are cached, since a
+ * later source file may declare a supertype that is missing now. The class being declared is never cached, since
+ * its own declaration is what is looked at and it may change from one cycle to the next. Instances are safe to share
+ * between threads.
+ */
+final class SerializableTypes {
+    private static final String SERIALIZABLE = "java.io.Serializable";
+
+    private final Map<String, Boolean> supertypes;
+
+    SerializableTypes(int capacity) {
+        this.supertypes = Collections.synchronizedMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > capacity;
+            }
+        });
+    }
+
+    boolean isSerializable(J.ClassDeclaration classDecl) {
+        JavaType.FullyQualified type = classDecl.getType();
+        if (type != null && !(type instanceof JavaType.Unknown)) {
+            Boolean serializable = anySerializable(isSerializableSupertype(type.getSupertype()), type);
+            return serializable == null || serializable;
+        }
+
+        //without type attribution, fall back to the names of the implemented interfaces
+        if (classDecl.getImplements() != null) {
+            for (TypeTree implemented : classDecl.getImplements()) {
+                if ("Serializable".equals(simpleName(implemented))) {
+                    return true;
+                }
+            }
+        }
+        //and to whether there is a superclass that may be Serializable
+        return classDecl.getExtends() != null;
+    }
+
+    /**
+     * @return Whether the supertype or any interface of the type is Serializable, or {@code null} if that can't be
+     * known because some of them aren't resolved and none of the others is.
+     */
+    @Nullable
+    private Boolean anySerializable(@Nullable Boolean supertype, JavaType.FullyQualified type) {
+        if (Boolean.TRUE.equals(supertype)) {
+            return true;
+        }
+        boolean resolved = supertype != null;
+        for (JavaType.FullyQualified implemented : type.getInterfaces()) {
+            Boolean serializable = isSerializableSupertype(implemented);
+            if (serializable == null) {
+                resolved = false;
+            } else if (serializable) {
+                return true;
+            }
+        }
+        return resolved ? Boolean.FALSE : null;
+    }
+
+    /**
+     * @return {@code null} if the type or one of its supertypes isn't resolved, and none of the resolved ones is
+     * Serializable.
+     */
+    @Nullable
+    private Boolean isSerializableSupertype(@Nullable JavaType.FullyQualified type) {
+        if (type == null) {
+            return false;
+        } else if (type instanceof JavaType.Unknown) {
+            return null;
+        }
+        String fqn = type.getFullyQualifiedName();
+        if (SERIALIZABLE.equals(fqn)) {
+            return true;
+        }
+
+        Boolean cached = supertypes.get(fqn);
+        if (cached == null) {
+            //computed outside of the lock, a race only computes the same answer twice
+            cached = anySerializable(isSerializableSupertype(type.getSupertype()), type);
+            if (cached != null) {
+                supertypes.put(fqn, cached);
+            }
+        }
+        return cached;
+    }
+
+    @Nullable
+    private static String simpleName(NameTree typeTree) {
+        if (typeTree instanceof J.ParameterizedType) {
+            return simpleName(((J.ParameterizedType) typeTree).getClazz());
+        } else if (typeTree instanceof J.Identifier) {
+            return ((J.Identifier) typeTree).getSimpleName();
+        } else if (typeTree instanceof J.FieldAccess) {
+            return ((J.FieldAccess) typeTree).getSimpleName();
+        }
+        return null;
+    }
+}
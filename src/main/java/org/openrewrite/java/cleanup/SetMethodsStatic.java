@@ -18,26 +18,65 @@ package org.openrewrite.java.cleanup;
 import lombok.EqualsAndHashCode;
 import lombok.Value;
 import org.openrewrite.*;
-import org.openrewrite.internal.ListUtils;
 import org.openrewrite.java.JavaIsoVisitor;
+import org.openrewrite.java.cleanup.table.SkippedSourceFiles;
+import org.openrewrite.java.cleanup.table.StaticMethodCandidates;
+import org.openrewrite.java.marker.JavaVersion;
 import org.openrewrite.java.tree.*;
 import org.openrewrite.marker.Markers;
 
 import javax.annotation.Nullable;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * One instance of this recipe, and one accumulator, can be shared by any number of threads that work on different
+ * source files at the same time. The recipe is immutable, the analyses are immutable once built, and the accumulator
+ * only holds them in a concurrent map. Visitors are the exception: a {@link TreeVisitor} keeps the cursor of the tree
+ * it is visiting, so every thread asks for its own scanner and visitor for each source file, which is cheap.
+ */
 @Value
 @EqualsAndHashCode(callSuper = false)
-public class SetMethodsStatic extends Recipe {
-    private static final String VAR = "var";
-    private static final String METHOD = "method";
-    private static final String INSTANCE_ACCESS_FOUND = "found";
-    private static final String IS_SERIALIZABLE = "isSerializable";
+public class SetMethodsStatic extends ScanningRecipe<SetMethodsStatic.Accumulator> {
+    transient StaticMethodCandidates candidates = new StaticMethodCandidates(this);
+    transient SkippedSourceFiles skippedSourceFiles = new SkippedSourceFiles(this);
+
+    @Option(displayName = "Report only",
+            description = "Report the methods that can be made static to a data table, without changing them.",
+            required = false)
+    @Nullable
+    Boolean reportOnly;
+
+    @Option(displayName = "Maximum nodes per file",
+            description = "Skip, and leave unchanged, a source file whose analysis visits more LST elements than this. " +
+                          "The skipped files are reported to a data table. The scan of a source file for method " +
+                          "references is not bounded, since it has to complete for the recipe to be safe.",
+            required = false,
+            example = "1000000")
+    @Nullable
+    Integer maxNodesPerFile;
+
+    @Option(displayName = "Maximum milliseconds per file",
+            description = "Skip, and leave unchanged, a source file whose analysis takes longer than this, the scan " +
+                          "of the source file for method references included. That scan is not bounded, since it " +
+                          "has to complete for the recipe to be safe, but a file that it takes too long for is " +
+                          "skipped. Call sites of a source file that take longer than this to rewrite are left " +
+                          "as they are. The skipped files are reported to a data table.",
+            required = false,
+            example = "10000")
+    @Nullable
+    Integer maxMillisPerFile;
+
+    @Option(displayName = "Analysis mode",
+            description = "`Typed`, the default, resolves fields and methods through their type attribution. " +
+                          "`Syntactic` only looks at modifiers and names, so that it works on LSTs parsed without " +
+                          "the classpath of their project. It is less precise, since every name that could refer to " +
+                          "instance data counts as an access, and it does not rewrite call sites in other files.",
+            valid = {"Typed", "Syntactic"},
+            required = false)
+    @Nullable
+    String analysisMode;
 
     @Override
     public String getDisplayName() {
@@ -49,153 +88,858 @@ public class SetMethodsStatic extends Recipe {
         return "Non-overridable methods (private or final) methods that don't access instance data should be static.";
     }
 
+    /**
+     * Analyses of the classes seen so far, keyed by the id of their class declaration.
+     * The accumulator lives for the whole recipe run, so classes that are not changed by a cycle
+     * are not analyzed again in the next one.
+     * <p>
+     * When two threads analyze the same class at the same time, both build the same analysis and the last one
+     * wins, so no lock is held while a class is analyzed.
+     * <p>
+     * Besides the analyses, the accumulator indexes what other source files need to know about candidates:
+     * the {@link MethodKeys keys} of methods that are referenced as method references anywhere, which keeps them
+     * from being made static, and for each source file the keys of the candidates it invokes on other objects,
+     * so that the edit phase only descends into the method bodies of the files with call sites to rewrite.
+     * Only keys and ids are held, no LSTs.
+     * <p>
+     * A source file whose analysis exceeds the budget is skipped: the analyses of its classes are dropped, so none of
+     * its methods is made static and none of its call sites elsewhere is rewritten, and the edit phase leaves it as
+     * it is. Its method references still count, since they keep methods of other files from being made static.
+     * <p>
+     * When the source files are split between runs that each have an accumulator, as the shards of a
+     * {@link ShardCoordinator}, the runs exchange their method references and then their decisions about the keys of
+     * their candidates once they are done scanning, and before anything is resolved.
+     */
+    public static class Accumulator {
+        private static final int SERIALIZABLE_TYPES_CAPACITY = 4096;
+
+        private final Map<UUID, StaticMethodAnalysis> analyses = new ConcurrentHashMap<>();
+
+        /**
+         * The ids of the analyzed classes, by the path of their source file and their name, to find their analyses
+         * when a source file is parsed again between the two phases, as {@link SetMethodsStaticRunner} does.
+         */
+        private final Map<String, UUID> classIds = new ConcurrentHashMap<>();
+        private final SerializableTypes serializableTypes = new SerializableTypes(SERIALIZABLE_TYPES_CAPACITY);
+        private final MethodKeys methodKeys = new MethodKeys();
+
+        /**
+         * The classes that declare a candidate with a given key, and the ids of those candidates.
+         */
+        private final Map<String, Map<UUID, UUID>> declarations = new ConcurrentHashMap<>();
+
+        private final Set<String> referenced = ConcurrentHashMap.newKeySet();
+        private final Map<Path, Set<String>> methodReferences = new ConcurrentHashMap<>();
+        private final Map<Path, Set<String>> callSites = new ConcurrentHashMap<>();
+        private final Set<Path> sourcesWithCandidates = ConcurrentHashMap.newKeySet();
+        private final Set<Path> skippedSources = ConcurrentHashMap.newKeySet();
+
+        /**
+         * Whether every candidate with a key is made static, for the keys of candidates declared by the source files
+         * of other accumulators.
+         */
+        private final Map<String, Boolean> decidedElsewhere = new ConcurrentHashMap<>();
+
+        /**
+         * Whether fields and methods are only known by name, see {@link StaticMethodAnalysis}.
+         */
+        private final boolean syntactic;
+
+        Accumulator(boolean syntactic) {
+            this.syntactic = syntactic;
+        }
+
+        /**
+         * @param cursor The cursor of the class declaration, whose parents are the enclosing classes.
+         * @param budget The budget of the source file, if any, which the analysis throws out of when it is spent.
+         * @return The analysis of the class, which is not resolved until the scanning phase is over.
+         */
+        StaticMethodAnalysis scan(J.ClassDeclaration classDecl, Cursor cursor, @Nullable AnalysisBudget budget,
+                                  ExecutionContext ctx) {
+            //an inner class sees the instance fields of its enclosing class, which is always analyzed first
+            StaticMethodAnalysis enclosing = null;
+            if (InstanceMemberIndex.isInnerClass(classDecl)) {
+                Cursor enclosingCursor = cursor.getParent();
+                while (enclosingCursor != null && !(enclosingCursor.getValue() instanceof J.ClassDeclaration)) {
+                    enclosingCursor = enclosingCursor.getParent();
+                }
+                if (enclosingCursor != null) {
+                    J.ClassDeclaration enclosingDecl = enclosingCursor.getValue();
+                    if (enclosingDecl.getKind() != J.ClassDeclaration.Kind.Type.Interface) {
+                        enclosing = scan(enclosingDecl, enclosingCursor, budget, ctx);
+                    }
+                }
+            }
+
+            StaticMethodAnalysis analysis = analyses.get(classDecl.getId());
+            if (analysis == null || !analysis.isAnalysisOf(classDecl, enclosing)) {
+                if (budget != null) {
+                    budget.check();
+                }
+                boolean staticMembersAllowed = enclosing == null ||
+                                               allowsStaticMembersInInnerClasses(cursor.firstEnclosing(JavaSourceFile.class));
+                J.CompilationUnit cu = cursor.firstEnclosing(J.CompilationUnit.class);
+                SetMethodsStaticStats stats = SetMethodsStaticStats.get(ctx);
+                //the usage of the whole compilation unit is computed once, and shared with the other recipes of the run
+                InstanceMemberUsage usage = cu == null || syntactic ? null : InstanceMemberUsage.of(cu, ctx, budget, stats);
+                analysis = StaticMethodAnalysis.analyze(classDecl, enclosing, staticMembersAllowed,
+                        syntactic ? staticImports(cu) : null, usage, serializableTypes, methodKeys, budget, stats);
+                analyses.put(classDecl.getId(), analysis);
+                classIds.put(className(classDecl, cursor), classDecl.getId());
+                for (Map.Entry<UUID, String> candidate : analysis.unambiguousKeys().entrySet()) {
+                    declarations.computeIfAbsent(candidate.getValue(), k -> new ConcurrentHashMap<>())
+                            .put(candidate.getKey(), classDecl.getId());
+                }
+            }
+            return analysis;
+        }
+
+        /**
+         * @return The resolved analysis of the class. A class of a source file that was parsed again since it was
+         * scanned is looked up by its name, so that it is not analyzed again outside of the budget of its file.
+         */
+        StaticMethodAnalysis analysis(J.ClassDeclaration classDecl, Cursor cursor, ExecutionContext ctx) {
+            if (!analyses.containsKey(classDecl.getId())) {
+                UUID scannedId = classIds.get(className(classDecl, cursor));
+                StaticMethodAnalysis scanned = scannedId == null ? null : analyses.get(scannedId);
+                if (scanned != null) {
+                    scanned.resolve(referenced, SetMethodsStaticStats.get(ctx));
+                    StaticMethodAnalysis reparsed = scanned.reparsed(classDecl);
+                    if (reparsed != null) {
+                        return reparsed;
+                    }
+                }
+            }
+            StaticMethodAnalysis analysis = scan(classDecl, cursor, null, ctx);
+            analysis.resolve(referenced, SetMethodsStaticStats.get(ctx));
+            return analysis;
+        }
+
+        /**
+         * @return The path of the source file and the names of the class and of the classes it is nested in, like
+         * {@code a/Outer.java#Outer$Inner}.
+         */
+        private static String className(J.ClassDeclaration classDecl, Cursor cursor) {
+            StringBuilder name = new StringBuilder(classDecl.getSimpleName());
+            for (Cursor c = cursor.getParent(); c != null; c = c.getParent()) {
+                Object value = c.getValue();
+                if (value instanceof J.ClassDeclaration) {
+                    name.insert(0, ((J.ClassDeclaration) value).getSimpleName() + '$');
+                } else if (value instanceof JavaSourceFile) {
+                    name.insert(0, ((JavaSourceFile) value).getSourcePath().toString() + '#');
+                }
+            }
+            return name.toString();
+        }
+
+        /**
+         * @return The simple names of the methods imported one by one with a static import.
+         */
+        private static Set<String> staticImports(@Nullable J.CompilationUnit cu) {
+            if (cu == null) {
+                return Collections.emptySet();
+            }
+            Set<String> names = new HashSet<>();
+            for (J.Import anImport : cu.getImports()) {
+                if (anImport.isStatic() && !"*".equals(anImport.getQualid().getSimpleName())) {
+                    names.add(anImport.getQualid().getSimpleName());
+                }
+            }
+            return names;
+        }
+
+        /**
+         * Inner classes can only declare static members since Java 16. Without a Java version on the source file,
+         * it is safer to assume an older one.
+         */
+        private static boolean allowsStaticMembersInInnerClasses(@Nullable JavaSourceFile sourceFile) {
+            if (sourceFile == null) {
+                return false;
+            }
+            Optional<JavaVersion> javaVersion = sourceFile.getMarkers().findFirst(JavaVersion.class);
+            return javaVersion.isPresent() && javaVersion.get().getMajorVersion() >= 16;
+        }
+
+        /**
+         * @return {@code true} if every candidate with this key is made static.
+         */
+        boolean isStatic(String key, ExecutionContext ctx) {
+            Boolean elsewhere = decidedElsewhere.get(key);
+            if (Boolean.FALSE.equals(elsewhere)) {
+                return false;
+            }
+            Boolean here = decide(key, ctx);
+            return here == null ? elsewhere != null : here;
+        }
+
+        /**
+         * @return Whether every candidate with this key that the source files of this accumulator declare is made
+         * static, or {@code null} if they declare none.
+         */
+        @Nullable
+        private Boolean decide(String key, ExecutionContext ctx) {
+            Map<UUID, UUID> candidates = declarations.get(key);
+            if (candidates == null) {
+                return null;
+            }
+            Boolean decision = null;
+            for (Map.Entry<UUID, UUID> candidate : candidates.entrySet()) {
+                StaticMethodAnalysis analysis = analyses.get(candidate.getValue());
+                if (analysis == null || !analysis.isCandidate(candidate.getKey())) {
+                    //a candidate of an earlier analysis of a class that has changed since
+                    continue;
+                }
+                analysis.resolve(referenced, SetMethodsStaticStats.get(ctx));
+                if (!analysis.isStatic(candidate.getKey())) {
+                    return false;
+                }
+                decision = true;
+            }
+            return decision;
+        }
+
+        /**
+         * @return The keys of the methods referenced as method references by the source files scanned so far.
+         */
+        Set<String> getReferenced() {
+            return Collections.unmodifiableSet(referenced);
+        }
+
+        /**
+         * @return The keys of the methods invoked on other objects by the source files scanned so far.
+         */
+        Set<String> getCalled() {
+            Set<String> called = new HashSet<>();
+            for (Set<String> keys : callSites.values()) {
+                called.addAll(keys);
+            }
+            return called;
+        }
+
+        /**
+         * Adds the method references of source files scanned by other accumulators, which has to happen before
+         * anything is resolved.
+         */
+        void referencedElsewhere(Collection<String> keys) {
+            referenced.addAll(keys);
+        }
+
+        /**
+         * @return Whether every candidate with a key is made static, for each key of a candidate that the source files
+         * of this accumulator declare, by key.
+         */
+        SortedMap<String, Boolean> decisions(ExecutionContext ctx) {
+            SortedMap<String, Boolean> decisions = new TreeMap<>();
+            for (String key : declarations.keySet()) {
+                Boolean decision = decide(key, ctx);
+                if (decision != null) {
+                    decisions.put(key, decision);
+                }
+            }
+            return decisions;
+        }
+
+        /**
+         * Adds the decisions about the keys of candidates declared by source files of other accumulators, so that
+         * the call sites of those that are made static are rewritten.
+         */
+        void decidedElsewhere(Map<String, Boolean> decisions) {
+            decidedElsewhere.putAll(decisions);
+        }
+
+        void scanned(Path sourcePath, boolean hasCandidates, Set<String> methodReferences, Set<String> callSites) {
+            scanned(sourcePath, hasCandidates, Collections.emptyList(), methodReferences, callSites);
+        }
+
+        /**
+         * @param skippedClasses The ids of the classes analyzed before the budget of the source file was spent, if it
+         *                       was, and otherwise nothing.
+         */
+        void scanned(Path sourcePath, boolean hasCandidates, Collection<UUID> skippedClasses,
+                     Set<String> methodReferences, Set<String> callSites) {
+            if (skippedClasses.isEmpty()) {
+                skippedSources.remove(sourcePath);
+            } else {
+                skippedSources.add(sourcePath);
+                analyses.keySet().removeAll(skippedClasses);
+            }
+            if (hasCandidates && skippedClasses.isEmpty()) {
+                sourcesWithCandidates.add(sourcePath);
+            }
+            if (!methodReferences.isEmpty()) {
+                this.methodReferences.put(sourcePath, methodReferences);
+                referenced.addAll(methodReferences);
+            }
+            if (!callSites.isEmpty()) {
+                this.callSites.put(sourcePath, callSites);
+            }
+        }
+
+        /**
+         * @return {@code true} if the source file declares a method that may be made static, as far as the scanning
+         * phase found, so that the edit phase has declarations to look at.
+         */
+        boolean hasCandidates(Path sourcePath) {
+            return sourcesWithCandidates.contains(sourcePath);
+        }
+
+        /**
+         * @return {@code true} if the analysis of the source file exceeded the budget, so that it is left unchanged.
+         */
+        boolean isSkipped(Path sourcePath) {
+            return skippedSources.contains(sourcePath);
+        }
+
+        /**
+         * @return The keys of the methods the source file references as method references.
+         */
+        Set<String> methodReferences(Path sourcePath) {
+            return methodReferences.getOrDefault(sourcePath, Collections.emptySet());
+        }
+
+        /**
+         * @return The keys of the candidates the source file invokes on other objects.
+         */
+        Set<String> callSites(Path sourcePath) {
+            return callSites.getOrDefault(sourcePath, Collections.emptySet());
+        }
+
+        boolean hasCallSitesToRewrite(Path sourcePath, ExecutionContext ctx) {
+            for (String key : callSites(sourcePath)) {
+                if (isStatic(key, ctx)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return {@code false} if the edit phase is known to leave the source file unchanged, which can only be
+         * known once the scanning phase is over.
+         */
+        boolean mayChange(Path sourcePath, ExecutionContext ctx) {
+            return !skippedSources.contains(sourcePath) &&
+                   (hasCandidates(sourcePath) || hasCallSitesToRewrite(sourcePath, ctx));
+        }
+
+        /**
+         * @return The key of the method, held once however many call sites refer to it.
+         */
+        @Nullable
+        String key(@Nullable JavaType.Method method) {
+            return methodKeys.key(method);
+        }
+
+        /**
+         * @return The key of the declared method, which is only its name in the syntactic mode.
+         */
+        @Nullable
+        String key(J.MethodDeclaration method) {
+            return syntactic ? methodKeys.nameKey(method.getSimpleName()) : methodKeys.key(method.getMethodType());
+        }
+
+        /**
+         * @return The key of the method a method reference refers to, which is only its name in the syntactic mode.
+         */
+        @Nullable
+        String key(J.MemberReference memberRef) {
+            if (syntactic) {
+                String name = memberRef.getReference().getSimpleName();
+                return "new".equals(name) ? null : methodKeys.nameKey(name);
+            }
+            JavaType.Method type = memberRef.getMethodType();
+            return type == null || type.hasFlags(Flag.Static) ? null : methodKeys.key(type);
+        }
+
+        /**
+         * @return {@code false} if call sites on other objects can't be rewritten, since their methods are not
+         * known without type attribution.
+         */
+        boolean rewritesCallSites() {
+            return !syntactic;
+        }
+    }
+
     @Override
-    public TreeVisitor<?, ExecutionContext> getVisitor() {
-        return new JavaIsoVisitor<ExecutionContext>() {
+    public Accumulator getInitialValue(ExecutionContext ctx) {
+        return new Accumulator("Syntactic".equals(analysisMode));
+    }
 
+    @Override
+    public TreeVisitor<?, ExecutionContext> getScanner(Accumulator acc) {
+        return new JavaIsoVisitor<ExecutionContext>() {
             @Override
-            public J.MethodDeclaration visitMethodDeclaration(J.MethodDeclaration methodDeclaration, ExecutionContext ctx) {
-                J.MethodDeclaration m = super.visitMethodDeclaration(methodDeclaration, ctx);
+            public J.CompilationUnit visitCompilationUnit(J.CompilationUnit cu, ExecutionContext ctx) {
+                //every method reference has to be found whatever the budget, but the time it takes counts against it
+                AnalysisBudget budget = AnalysisBudget.start(maxNodesPerFile, maxMillisPerFile);
+                ReferenceScanner references = new ReferenceScanner(acc);
+                references.visit(cu, ctx, getCursor().getParentOrThrow());
+                SetMethodsStaticStats.get(ctx).traversed(references.takeNodes());
+                boolean hasCandidates = hasCandidateMethods(cu);
+                List<UUID> skippedClasses = hasCandidates ? scanClasses(cu, budget, ctx) : Collections.emptyList();
+                acc.scanned(cu.getSourcePath(), hasCandidates, skippedClasses, references.methodReferences,
+                        references.callSites);
+                return cu;
+            }
 
-                //ignore if method is already static
-                if (m.hasModifier(J.Modifier.Type.Static)) {
-                    return m;
+            /**
+             * @return The ids of the classes scanned before the budget was spent, or nothing if it wasn't.
+             */
+            private List<UUID> scanClasses(J.CompilationUnit cu, @Nullable AnalysisBudget budget, ExecutionContext ctx) {
+                List<UUID> scanned = new ArrayList<>();
+                ClassMemberVisitor members = new ClassMemberVisitor() {
+                    @Override
+                    public J.ClassDeclaration visitClassDeclaration(J.ClassDeclaration classDecl, ExecutionContext ctx) {
+                        SetMethodsStaticStats.get(ctx).classScanned();
+                        scanned.add(classDecl.getId());
+                        if (budget != null) {
+                            //the reference scan counts, even for a class whose analysis from an earlier cycle is reused
+                            budget.check();
+                        }
+                        acc.scan(classDecl, getCursor(), budget, ctx);
+                        return super.visitClassDeclaration(classDecl, ctx);
+                    }
+                };
+                try {
+                    members.visit(cu, ctx, getCursor().getParentOrThrow());
+                    return Collections.emptyList();
+                } catch (RuntimeException e) {
+                    //visitors wrap what is thrown out of them
+                    AnalysisBudget.Exceeded exceeded = AnalysisBudget.Exceeded.causeOf(e);
+                    if (exceeded == null || budget == null) {
+                        throw e;
+                    }
+                    SetMethodsStaticStats.get(ctx).fileSkipped();
+                    skippedSourceFiles.insertRow(ctx, new SkippedSourceFiles.Row(
+                            cu.getSourcePath().toString(),
+                            exceeded.getMessage(),
+                            budget.getNodes(),
+                            budget.getElapsedMillis()
+                    ));
+                    return scanned;
+                } finally {
+                    SetMethodsStaticStats.get(ctx).traversed(members.takeNodes());
                 }
+            }
+        };
+    }
 
-                //ignore if it's non-private , non-final
-                if(!(m.hasModifier(J.Modifier.Type.Private) || m.hasModifier(J.Modifier.Type.Final))) {
-                    return m;
-                }
+    @Override
+    public TreeVisitor<?, ExecutionContext> getVisitor(Accumulator acc) {
+        ClassMemberVisitor declarations = new ClassMemberVisitor() {
+            /**
+             * The analyses of the enclosing classes, innermost first.
+             */
+            private final Deque<StaticMethodAnalysis> classes = new ArrayDeque<>();
 
-                Cursor cdCursor = getCursor().dropParentUntil(parent -> parent instanceof J.ClassDeclaration);
+            @Override
+            public J.MethodDeclaration visitMethodDeclaration(J.MethodDeclaration methodDeclaration, ExecutionContext ctx) {
+                J.MethodDeclaration m = methodDeclaration;
+                StaticMethodAnalysis analysis = classes.peek();
 
-                /*
-                ignore following methods if the class implements Serializable
-                todo: instead of using simpleName, it would be more accurate to compare method objects
-                 */
-                if (cdCursor.getMessage(IS_SERIALIZABLE) != null) {
-                    switch (m.getSimpleName()) {
-                        case "writeObject":
-                        case "readObject":
-                        case "readObjectNoData":
-                            return m;
-                        default:
+                if (analysis != null && Boolean.TRUE.equals(reportOnly)) {
+                    String reason = analysis.reason(m);
+                    if (reason != null) {
+                        report(m, reason, ctx);
                     }
+                } else if (analysis != null && analysis.isStatic(m)) {
+                    //there was no instance data access found
+                    long start = System.nanoTime();
+                    m = m.withModifiers(staticModifiers(m.getModifiers()));
+                    SetMethodsStaticStats.get(ctx).methodConverted(System.nanoTime() - start);
                 }
 
-                //there was no instance data access found
-                if(getCursor().getMessage(INSTANCE_ACCESS_FOUND) == null) {
-                    //no need to keep the final modifier, since this will create another code smell.
-                    List<J.Modifier> list = m.getModifiers().stream()
-                            .filter(modifier->!(modifier.getType().equals(J.Modifier.Type.Final)))
-                            .collect(Collectors.toList());
-
-                    m = autoFormat(
-                            m.withModifiers(
-                                    ListUtils.concat(
-                                            list,
-                                            new J.Modifier(
-                                                    Tree.randomId(),
-                                                    Space.EMPTY,
-                                                    Markers.EMPTY,
-                                                    J.Modifier.Type.Static,
-                                                    Collections.emptyList()
-                                            )
-                                    )
-                            ), ctx
-                    );
-
-                }
-                //doAfterVisit(this);
+                //the body is not descended into, see ClassMemberVisitor
                 return m;
             }
 
+            private void report(J.MethodDeclaration m, String reason, ExecutionContext ctx) {
+                J.ClassDeclaration classDecl = getCursor().firstEnclosingOrThrow(J.ClassDeclaration.class);
+                candidates.report(ctx, new StaticMethodCandidates.Row(
+                        getCursor().firstEnclosingOrThrow(SourceFile.class).getSourcePath().toString(),
+                        classDecl.getType() == null ? classDecl.getSimpleName() : classDecl.getType().getFullyQualifiedName(),
+                        StaticMethodAnalysis.signature(m),
+                        reason
+                ));
+            }
+
             @Override
             public J.ClassDeclaration visitClassDeclaration(J.ClassDeclaration classDecl, ExecutionContext ctx) {
-                Cursor c = getCursor();
-
-                //check if the class implements Serializable
-                if(classDecl.getImplements() != null && !classDecl.getImplements().isEmpty()) {
-                    boolean isSerializable = classDecl.getImplements().stream().filter(fa -> {
-                        J.FieldAccess fs = (J.FieldAccess) fa;
-                        return fs.getName().getSimpleName().equals("Serializable");
-                    }).count() != 0;
-
-                    if(isSerializable)
-                        c.putMessage(IS_SERIALIZABLE, true);
-                }
-
-                for(Statement s: classDecl.getBody().getStatements()) {
-                    if(s instanceof J.VariableDeclarations) {
-                        J.VariableDeclarations vd = (J.VariableDeclarations)s;
-                        if(vd.hasModifier(J.Modifier.Type.Static))
-                            continue;
-
-                        Set<String> varSet = c.getMessage(VAR, new HashSet<>());
-                        varSet.addAll(vd
-                                .getVariables()
-                                .stream()
-                                .map(J.VariableDeclarations.NamedVariable::getSimpleName)
-                                .collect(Collectors.toList()));
-                        c.putMessage(VAR, varSet);
-                    }
-                    else if(s instanceof J.MethodDeclaration) {
-                        J.MethodDeclaration md = (J.MethodDeclaration)s;
-                        if(md.hasModifier(J.Modifier.Type.Static))
-                            continue;
-
-                        Set<JavaType.Method> methodSet = c.getMessage(METHOD, new HashSet<>());
-                        if(md.getMethodType() != null)
-                            methodSet.add(md.getMethodType());
-                        c.putMessage(METHOD, methodSet);
-                    }
+                classes.push(acc.analysis(classDecl, getCursor(), ctx));
+                try {
+                    return super.visitClassDeclaration(classDecl, ctx);
+                } finally {
+                    classes.pop();
                 }
-                return super.visitClassDeclaration(classDecl, ctx);
             }
+        };
 
+        return new JavaIsoVisitor<ExecutionContext>() {
             @Override
-            public J.MethodInvocation visitMethodInvocation(J.MethodInvocation methodInvocation, ExecutionContext executionContext) {
-                J.MethodInvocation m = super.visitMethodInvocation(methodInvocation, executionContext);
+            public J.CompilationUnit visitCompilationUnit(J.CompilationUnit cu, ExecutionContext ctx) {
+                if (acc.isSkipped(cu.getSourcePath())) {
+                    return cu;
+                }
+                J.CompilationUnit c = cu;
+                if (acc.hasCandidates(cu.getSourcePath())) {
+                    c = (J.CompilationUnit) declarations.visitNonNull(c, ctx, getCursor().getParentOrThrow());
+                    SetMethodsStaticStats.get(ctx).traversed(declarations.takeNodes());
+                }
+                if (!Boolean.TRUE.equals(reportOnly) && acc.hasCallSitesToRewrite(c.getSourcePath(), ctx)) {
+                    c = rewriteCallSites(c, ctx);
+                }
+                return c;
+            }
+
+            /**
+             * Call sites left as they are still compile, so unlike the declarations, which other source files may
+             * already call as static methods, they are given up on once the time limit is spent.
+             */
+            private J.CompilationUnit rewriteCallSites(J.CompilationUnit cu, ExecutionContext ctx) {
+                AnalysisBudget budget = AnalysisBudget.start(null, maxMillisPerFile);
+                CallSiteVisitor callSites = new CallSiteVisitor(acc, budget);
+                try {
+                    return (J.CompilationUnit) callSites.visitNonNull(cu, ctx, getCursor().getParentOrThrow());
+                } catch (RuntimeException e) {
+                    AnalysisBudget.Exceeded exceeded = AnalysisBudget.Exceeded.causeOf(e);
+                    if (exceeded == null || budget == null) {
+                        throw e;
+                    }
+                    skippedSourceFiles.insertRow(ctx, new SkippedSourceFiles.Row(
+                            cu.getSourcePath().toString(),
+                            "Call sites not rewritten: " + exceeded.getMessage(),
+                            budget.getNodes(),
+                            budget.getElapsedMillis()
+                    ));
+                    return cu;
+                } finally {
+                    SetMethodsStaticStats.get(ctx).traversed(callSites.takeNodes());
+                }
+            }
+        };
+    }
 
-                Cursor mdCursor = this.dropParentUntil(getCursor(), parent -> parent instanceof J.MethodDeclaration);
-                if(mdCursor == null)
-                    return m;
+    /**
+     * Drops the final modifier and appends a static one, reusing the whitespace that is already there:
+     * a final modifier that came first hands its prefix to the modifier that follows it, and the static modifier
+     * is separated from the one before it by a single space. Nothing but the modifier list is touched, so the rest
+     * of the method keeps its formatting and its identity.
+     */
+    private static List<J.Modifier> staticModifiers(List<J.Modifier> modifiers) {
+        List<J.Modifier> edited = new ArrayList<>(modifiers.size() + 1);
+        Space leadingPrefix = null;
+        for (J.Modifier modifier : modifiers) {
+            //no need to keep the final modifier, since this will create another code smell.
+            if (modifier.getType() == J.Modifier.Type.Final) {
+                if (edited.isEmpty()) {
+                    leadingPrefix = modifier.getPrefix();
+                }
+                continue;
+            }
+            if (leadingPrefix != null) {
+                modifier = modifier.withPrefix(leadingPrefix);
+                leadingPrefix = null;
+            }
+            edited.add(modifier);
+        }
+
+        Space prefix = edited.isEmpty() ? (leadingPrefix == null ? Space.EMPTY : leadingPrefix) : Space.SINGLE_SPACE;
+        edited.add(new J.Modifier(Tree.randomId(), prefix, Markers.EMPTY, J.Modifier.Type.Static, Collections.emptyList()));
+        return edited;
+    }
+
+    /**
+     * @return {@code true} if a top-level or member class of the compilation unit declares a method whose modifiers
+     * allow it to be made static. Only class bodies and method modifiers are looked at, which is much cheaper than
+     * the analysis, so the many files without any such method never reach it. Nothing is allocated, unlike a
+     * precondition that marks the compilation unit it finds.
+     */
+    private static boolean hasCandidateMethods(J.CompilationUnit cu) {
+        for (J.ClassDeclaration classDecl : cu.getClasses()) {
+            if (hasCandidateMethods(classDecl)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasCandidateMethods(J.ClassDeclaration classDecl) {
+        for (Statement s : classDecl.getBody().getStatements()) {
+            if (s instanceof J.MethodDeclaration) {
+                if (StaticMethodAnalysis.hasCandidateModifiers((J.MethodDeclaration) s)) {
+                    return true;
+                }
+            } else if (s instanceof J.ClassDeclaration && hasCandidateMethods((J.ClassDeclaration) s)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects the keys of the methods that a source file references as method references, and of the final or
+     * private instance methods that it invokes on other objects, unless those can't be rewritten.
+     */
+    private static class ReferenceScanner extends CountingVisitor {
+        private final Accumulator acc;
+        private Set<String> methodReferences = Collections.emptySet();
+        private Set<String> callSites = Collections.emptySet();
 
-                Cursor cdCursor = getCursor().dropParentUntil(parent -> parent instanceof J.ClassDeclaration);
+        ReferenceScanner(Accumulator acc) {
+            this.acc = acc;
+        }
+
+        @Override
+        public J.MemberReference visitMemberReference(J.MemberReference memberRef, ExecutionContext ctx) {
+            J.MemberReference m = super.visitMemberReference(memberRef, ctx);
+            String key = acc.key(m);
+            if (key != null) {
+                if (methodReferences.isEmpty()) {
+                    methodReferences = new HashSet<>();
+                }
+                methodReferences.add(key);
+            }
+            return m;
+        }
 
-                //check if the method is the instance member of the class
-                Set<JavaType.Method> set = cdCursor.getMessage(METHOD);
-                if(set != null && m.getMethodType() != null && set.contains(m.getMethodType())) {
-                    mdCursor.putMessage(INSTANCE_ACCESS_FOUND, true);
+        @Override
+        public J.MethodInvocation visitMethodInvocation(J.MethodInvocation method, ExecutionContext ctx) {
+            J.MethodInvocation m = super.visitMethodInvocation(method, ctx);
+            JavaType.Method type = m.getMethodType();
+            if (acc.rewritesCallSites() && type != null && !type.hasFlags(Flag.Static) &&
+                (type.hasFlags(Flag.Final) || type.hasFlags(Flag.Private)) && CallSiteVisitor.isRewritable(m.getSelect())) {
+                String key = acc.key(type);
+                if (key != null) {
+                    if (callSites.isEmpty()) {
+                        callSites = new HashSet<>();
+                    }
+                    callSites.add(key);
                 }
+            }
+            return m;
+        }
+    }
+
+    /**
+     * Rewrites invocations of methods that are made static on a variable, like {@code helper.method()},
+     * into invocations on the declaring type, like {@code Helper.method()}.
+     * <p>
+     * Only variables and chains of field accesses are rewritten, since evaluating them has no side effect that the
+     * rewritten invocation would lose. Invocations on the result of a call or of any other expression are left as
+     * they are, and remain valid Java.
+     */
+    private static class CallSiteVisitor extends CountingVisitor {
+        private final Accumulator acc;
+
+        @Nullable
+        private final AnalysisBudget budget;
+
+        CallSiteVisitor(Accumulator acc, @Nullable AnalysisBudget budget) {
+            this.acc = acc;
+            this.budget = budget;
+        }
+
+        @Override
+        public @Nullable J visit(@Nullable Tree tree, ExecutionContext ctx) {
+            if (budget != null && tree != null) {
+                budget.tick();
+            }
+            return super.visit(tree, ctx);
+        }
+
+        @Override
+        public J.MethodInvocation visitMethodInvocation(J.MethodInvocation method, ExecutionContext ctx) {
+            J.MethodInvocation m = super.visitMethodInvocation(method, ctx);
+            JavaType.Method type = m.getMethodType();
+            Expression select = m.getSelect();
+            if (type == null || select == null || !isRewritable(select) || type.getDeclaringType() instanceof JavaType.Unknown) {
+                return m;
+            }
+            String key = acc.key(type);
+            if (key == null || !acc.isStatic(key, ctx)) {
                 return m;
             }
 
-            @Override
-            public J.Identifier visitIdentifier(J.Identifier identifier, ExecutionContext executionContext) {
+            JavaType.FullyQualified declaringType = type.getDeclaringType();
+            JavaType.FullyQualified topLevel = declaringType;
+            while (topLevel.getOwningClass() != null) {
+                topLevel = topLevel.getOwningClass();
+            }
 
-                Cursor mdCursor = this.dropParentUntil(getCursor(), parent -> parent instanceof J.MethodDeclaration);
-                if(mdCursor == null)
-                    return identifier;
+            J.CompilationUnit cu = getCursor().firstEnclosingOrThrow(J.CompilationUnit.class);
+            String name;
+            if (isShadowed(cu, topLevel)) {
+                name = declaringType.getFullyQualifiedName().replace('$', '.');
+            } else {
+                name = declaringType.getClassName();
+                maybeAddImport(topLevel.getFullyQualifiedName(), null, false);
+            }
+            Expression typeReference = TypeTree.build(name);
+            SetMethodsStaticStats.get(ctx).callSiteRewritten();
+            return m.withSelect(typeReference.withType(declaringType).withPrefix(select.getPrefix()));
+        }
 
-                //check if the identifier name matches the instance variable of the class
-                Cursor cdCursor = getCursor().dropParentUntil(parent -> parent instanceof J.ClassDeclaration);
-                Set<String> set = cdCursor.getMessage(VAR);
-                if(set != null && set.contains(identifier.getSimpleName())) {
-                    mdCursor.putMessage(INSTANCE_ACCESS_FOUND, true);
+        /**
+         * @return {@code true} if the simple name of the type may not refer to it in the compilation unit: another type
+         * with that name is imported, declared or used there, or the type would have to be imported next to an import
+         * on demand, which can't shadow a type with that name in the package of the compilation unit.
+         */
+        private static boolean isShadowed(J.CompilationUnit cu, JavaType.FullyQualified topLevel) {
+            String simpleName = topLevel.getClassName();
+            String fullyQualifiedName = topLevel.getFullyQualifiedName();
+            boolean imported = false;
+            boolean onDemand = false;
+            for (J.Import anImport : cu.getImports()) {
+                if (anImport.isStatic()) {
+                    continue;
                 }
+                String importedName = anImport.getQualid().getSimpleName();
+                if ("*".equals(importedName)) {
+                    onDemand = true;
+                } else if (fullyQualifiedName.equals(anImport.getTypeName())) {
+                    imported = true;
+                } else if (simpleName.equals(importedName)) {
+                    return true;
+                }
+            }
+            if (!imported && onDemand && !topLevel.getPackageName().equals(packageName(cu))) {
+                return true;
+            }
 
-                return identifier;
+            for (JavaType type : cu.getTypesInUse().getTypesInUse()) {
+                if (type instanceof JavaType.FullyQualified &&
+                    isShadowing((JavaType.FullyQualified) type, simpleName, fullyQualifiedName)) {
+                    return true;
+                }
             }
+            return declares(cu.getClasses(), simpleName, fullyQualifiedName);
+        }
 
-            @Nullable
-            public Cursor dropParentUntil(Cursor c, Predicate<Object> valuePredicate) {
-                Cursor cursor = c;
-                while (cursor != null && !valuePredicate.test(cursor.getValue())) {
-                    cursor = cursor.getParent();
+        private static boolean declares(List<J.ClassDeclaration> classes, String simpleName, String fullyQualifiedName) {
+            for (J.ClassDeclaration classDecl : classes) {
+                if (simpleName.equals(classDecl.getSimpleName()) && (classDecl.getType() == null ||
+                    !fullyQualifiedName.equals(classDecl.getType().getFullyQualifiedName()))) {
+                    return true;
+                }
+                List<J.ClassDeclaration> memberClasses = new ArrayList<>();
+                for (Statement statement : classDecl.getBody().getStatements()) {
+                    if (statement instanceof J.ClassDeclaration) {
+                        memberClasses.add((J.ClassDeclaration) statement);
+                    }
+                }
+                if (declares(memberClasses, simpleName, fullyQualifiedName)) {
+                    return true;
                 }
-                return cursor;
             }
-        };
+            return false;
+        }
+
+        /**
+         * @return {@code true} if the type, or the type it is nested in, has the simple name but is another type.
+         */
+        private static boolean isShadowing(JavaType.FullyQualified type, String simpleName, String fullyQualifiedName) {
+            for (JavaType.FullyQualified t = type; t != null; t = t.getOwningClass()) {
+                String name = t.getFullyQualifiedName();
+                if (name.equals(fullyQualifiedName)) {
+                    return false;
+                }
+                if (simpleName.equals(name.substring(Math.max(name.lastIndexOf('.'), name.lastIndexOf('$')) + 1))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static String packageName(J.CompilationUnit cu) {
+            if (cu.getPackageDeclaration() == null) {
+                return "";
+            }
+            StringBuilder name = new StringBuilder();
+            Expression part = cu.getPackageDeclaration().getExpression();
+            while (part instanceof J.FieldAccess) {
+                name.insert(0, '.' + ((J.FieldAccess) part).getSimpleName());
+                part = ((J.FieldAccess) part).getTarget();
+            }
+            if (part instanceof J.Identifier) {
+                name.insert(0, ((J.Identifier) part).getSimpleName());
+            }
+            return name.toString();
+        }
+
+        /**
+         * @return {@code true} if the select is a variable or a chain of field accesses ending in one,
+         * but not this, super, or a type.
+         */
+        static boolean isRewritable(@Nullable Expression select) {
+            if (select instanceof J.Identifier) {
+                J.Identifier identifier = (J.Identifier) select;
+                return identifier.getFieldType() != null &&
+                       !"this".equals(identifier.getSimpleName()) && !"super".equals(identifier.getSimpleName());
+            } else if (select instanceof J.FieldAccess) {
+                J.FieldAccess fieldAccess = (J.FieldAccess) select;
+                if (fieldAccess.getName().getFieldType() == null) {
+                    return false;
+                }
+                Expression target = fieldAccess.getTarget();
+                while (target instanceof J.FieldAccess) {
+                    target = ((J.FieldAccess) target).getTarget();
+                }
+                return target instanceof J.Identifier;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Visits top-level and member classes and the members declared in their bodies, but nothing below a member.
+     * <p>
+     * The decisions of the recipe are all made by {@link StaticMethodAnalysis}, so there is no reason to walk
+     * method bodies, field initializers or initializer blocks. The classes declared in them are local or anonymous
+     * classes, which are left untouched. The analysis of the method that declares them looks into their bodies for
+     * accesses to the instance data of the enclosing class.
+     */
+    private static class ClassMemberVisitor extends CountingVisitor {
+        @Override
+        public J.Block visitBlock(J.Block block, ExecutionContext ctx) {
+            if (!(getCursor().getParentTreeCursor().getValue() instanceof J.ClassDeclaration)) {
+                return block;
+            }
+            return super.visitBlock(block, ctx);
+        }
+
+        @Override
+        public J.MethodDeclaration visitMethodDeclaration(J.MethodDeclaration method, ExecutionContext ctx) {
+            return method;
+        }
+
+        @Override
+        public J.VariableDeclarations visitVariableDeclarations(J.VariableDeclarations multiVariable, ExecutionContext ctx) {
+            return multiVariable;
+        }
+    }
+
+    /**
+     * Counts the nodes it visits, for {@link SetMethodsStaticStats#getNodesTraversed()}. A plain field is enough,
+     * since a visitor belongs to a single thread.
+     */
+    private abstract static class CountingVisitor extends JavaIsoVisitor<ExecutionContext> {
+        private int nodes;
+
+        @Override
+        public @Nullable J visit(@Nullable Tree tree, ExecutionContext ctx) {
+            if (tree != null) {
+                nodes++;
+            }
+            return super.visit(tree, ctx);
+        }
+
+        /**
+         * @return The nodes visited since the last call.
+         */
+        int takeNodes() {
+            int taken = nodes;
+            nodes = 0;
+            return taken;
+        }
     }
 }
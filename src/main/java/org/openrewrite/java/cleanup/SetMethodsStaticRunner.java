@@ -0,0 +1,829 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.java.cleanup;
+
+import lombok.Builder;
+import lombok.Value;
+import org.openrewrite.*;
+import org.openrewrite.java.JavaIsoVisitor;
+import org.openrewrite.java.JavaParser;
+import org.openrewrite.java.cleanup.table.StaticMethodCandidates;
+import org.openrewrite.java.tree.J;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Applies {@link SetMethodsStatic} to every Java source file below a directory, one batch of files per task on a pool
+ * of worker threads, and writes changed files back in place.
+ * <p>
+ * The run has two phases, like the recipe. All files are parsed and scanned first, then the batches with files that
+ * the recipe may change are parsed again and edited, so that call sites in one file can be rewritten for methods made
+ * static in another. No LST is kept beyond the task that parsed it, so the heap needed by a run is set by the
+ * parallelism, the queue capacity and the batch size, not by the number of files.
+ * <p>
+ * The files of a batch are parsed together, so their types are attributed across the batch. Batches are cut from the
+ * files in path order, so that the files of a package tend to share a batch, and are both parsed with the same files
+ * in the two phases. The default batch size of one parses every file on its own.
+ * <p>
+ * Batches are submitted largest first, so that the biggest ones do not end up alone on one worker at the end of the
+ * run. At most {@code queueCapacity} batches are parsed or waiting to be parsed at any time.
+ * <p>
+ * With a cache file, the outcome for each file is recorded in a {@link ResultCache}, and files that still have
+ * the content a previous run left them with are not even parsed, unless the methods they declare are referenced as
+ * method references or invoked on other objects by other files than in the previous run.
+ * <p>
+ * With a report file, no file is changed. The methods that can be made static are written to the report as CSV
+ * while the run progresses, see {@link StaticMethodCandidates}. A report covers every file, so it can't be combined
+ * with a cache.
+ * <p>
+ * A changed file is written whole by default, see {@link OutputMode} for writing only the lines that changed. With
+ * a diff file, no file is changed, and the changes are written to the diff file as a unified diff instead, in the
+ * order of the paths of the files. A diff covers every file, so it can't be combined with a cache.
+ * <p>
+ * With a budget per file, in visited nodes or in milliseconds, a file whose analysis exceeds it is skipped and left
+ * unchanged, and the worker moves on. Skipped files are counted in the stats, and are not cached, so the next run
+ * tries them again.
+ * <p>
+ * The typed analysis mode of {@link SetMethodsStatic} needs the types the source files reference, so it needs the
+ * classpath of their project, compiled classes of the sources included, since a batch only attributes the types of
+ * its own files. Without a classpath, the runner defaults to the syntactic analysis mode, in which the recipe does not
+ * depend on type attribution, so the types that are missing do not make it less safe. No call site is rewritten in
+ * that mode, so only the batches with a file that declares a candidate are parsed a second time.
+ * <p>
+ * To split the files of a repository between several JVMs, see {@link ShardCoordinator}.
+ * <pre>
+ * usage: SetMethodsStaticRunner &lt;source root&gt; [--parallelism N] [--executor fork-join|threads] [--queue-capacity N]
+ *                              [--batch-size N] [--max-nodes-per-file N] [--max-millis-per-file N]
+ *                              [--classpath PATH] [--analysis-mode typed|syntactic] [--output rewrite|patch]
+ *                              [--cache FILE | --report FILE | --diff FILE]
+ * </pre>
+ */
+public class SetMethodsStaticRunner {
+    private final Path root;
+    private final int parallelism;
+    private final ExecutorKind executorKind;
+    private final int queueCapacity;
+    private final int batchSize;
+
+    @Nullable
+    private final Path cacheFile;
+
+    @Nullable
+    private final Path reportFile;
+
+    private final OutputMode outputMode;
+
+    @Nullable
+    private final Path diffFile;
+
+    /**
+     * The classpath the source files are parsed with, or {@code null} to parse them without one.
+     */
+    @Nullable
+    private final List<Path> classpath;
+
+    private final SetMethodsStatic recipe;
+    private final SetMethodsStaticStats stats = new SetMethodsStaticStats();
+    private static final int REPORT_BATCH_SIZE = 1024;
+
+    private final ThreadLocal<JavaParser> parsers;
+
+    public SetMethodsStaticRunner(Path root, int parallelism, ExecutorKind executorKind, int queueCapacity) {
+        this(root, parallelism, executorKind, queueCapacity, 1, null, null, null, null, null, null, null, null);
+    }
+
+    public SetMethodsStaticRunner(Path root, int parallelism, ExecutorKind executorKind, int queueCapacity,
+                                  @Nullable Path cacheFile, @Nullable Path reportFile) {
+        this(root, parallelism, executorKind, queueCapacity, 1, null, null, null, null, null, cacheFile, reportFile,
+                null);
+    }
+
+    /**
+     * @param classpath    The classpath to parse the source files with, which the typed analysis mode requires.
+     * @param analysisMode The analysis mode of {@link SetMethodsStatic}, by default typed with a classpath and
+     *                     syntactic without one.
+     * @param outputMode   How changed files are written, by default {@link OutputMode#REWRITE}.
+     */
+    @Builder
+    public SetMethodsStaticRunner(Path root, int parallelism, ExecutorKind executorKind, int queueCapacity,
+                                  int batchSize, @Nullable Integer maxNodesPerFile, @Nullable Integer maxMillisPerFile,
+                                  @Nullable List<Path> classpath, @Nullable String analysisMode,
+                                  @Nullable OutputMode outputMode, @Nullable Path cacheFile, @Nullable Path reportFile,
+                                  @Nullable Path diffFile) {
+        if (parallelism < 1 || queueCapacity < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Parallelism, queue capacity and batch size must be positive");
+        }
+        if ((maxNodesPerFile != null && maxNodesPerFile < 1) || (maxMillisPerFile != null && maxMillisPerFile < 1)) {
+            throw new IllegalArgumentException("The budget per file must be positive");
+        }
+        if (analysisMode != null && !"Typed".equals(analysisMode) && !"Syntactic".equals(analysisMode)) {
+            throw new IllegalArgumentException("Unknown analysis mode " + analysisMode);
+        }
+        if (analysisMode == null) {
+            analysisMode = classpath == null ? "Syntactic" : "Typed";
+        } else if ("Typed".equals(analysisMode) && classpath == null) {
+            //types that are not attributed hide method references and inherited members from the analysis
+            throw new IllegalArgumentException("The typed analysis mode needs the classpath of the source files");
+        }
+        if (cacheFile != null && reportFile != null) {
+            throw new IllegalArgumentException("A report can't be made from cached results");
+        }
+        if (diffFile != null && (cacheFile != null || reportFile != null)) {
+            throw new IllegalArgumentException("A diff can't be made from cached results or along with a report");
+        }
+        this.root = root;
+        this.parallelism = parallelism;
+        this.executorKind = executorKind;
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+        this.cacheFile = cacheFile;
+        this.reportFile = reportFile;
+        this.outputMode = outputMode == null ? OutputMode.REWRITE : outputMode;
+        this.diffFile = diffFile;
+        this.classpath = classpath == null ? null : new ArrayList<>(classpath);
+        this.parsers = ThreadLocal.withInitial(() -> {
+            JavaParser.Builder<?, ?> parser = JavaParser.fromJavaVersion().logCompilationWarningsAndErrors(false);
+            if (this.classpath != null) {
+                parser.classpath(this.classpath);
+            }
+            return parser.build();
+        });
+        this.recipe = new SetMethodsStatic(reportFile == null ? null : true, maxNodesPerFile, maxMillisPerFile,
+                analysisMode);
+    }
+
+    public enum ExecutorKind {
+        /**
+         * A work-stealing {@link ForkJoinPool}.
+         */
+        FORK_JOIN,
+
+        /**
+         * A fixed pool of platform threads.
+         */
+        THREADS;
+
+        ExecutorService create(int parallelism) {
+            return this == FORK_JOIN ? new ForkJoinPool(parallelism) : Executors.newFixedThreadPool(parallelism);
+        }
+    }
+
+    public enum OutputMode {
+        /**
+         * Writes only the changed lines, in place, when they keep their length, and replaces the file atomically
+         * otherwise, once the file is checked to still have the content it was parsed from. See {@link SourcePatch}.
+         * <p>
+         * It only saves I/O for changes that keep the length of every line they change, which those of
+         * {@link SetMethodsStatic} never do: adding {@code static} or qualifying a call site makes a line longer.
+         * Any other change costs a diff, a read of the file to check it, and a write of the whole file.
+         */
+        PATCH,
+
+        /**
+         * Writes the whole content of changed files, the default.
+         */
+        REWRITE
+    }
+
+    @Value
+    public static class Result {
+        Path sourcePath;
+
+        /**
+         * Whether the recipe changed the file, or would have, when the changes go to a diff file.
+         */
+        boolean changed;
+
+        /**
+         * Whether the outcome was taken from the cache of a previous run.
+         */
+        boolean cached;
+
+        /**
+         * The methods made static, by the current run or by the cached run.
+         */
+        List<String> staticMethods;
+
+        @Nullable
+        Throwable error;
+    }
+
+    /**
+     * What happens between the two phases of a run, and to the diffs once they are all made. A run over a shard of
+     * the source files exchanges what it needs to know about the other shards in between, see {@link ShardCoordinator}.
+     */
+    interface Phases {
+        /**
+         * Called once every source file is scanned, before any is edited.
+         */
+        void scanned(SetMethodsStatic.Accumulator acc, ExecutionContext ctx) throws IOException;
+
+        /**
+         * Called with the diffs of the changed files, by their path, when the run makes a diff.
+         */
+        void diffs(SortedMap<Path, String> diffs) throws IOException;
+    }
+
+    public List<Result> run() throws IOException, InterruptedException {
+        return run(batches(root, batchSize), new Phases() {
+            @Override
+            public void scanned(SetMethodsStatic.Accumulator acc, ExecutionContext ctx) {
+            }
+
+            @Override
+            public void diffs(SortedMap<Path, String> diffs) throws IOException {
+                try (Writer diff = Files.newBufferedWriter(diffFile, StandardCharsets.UTF_8)) {
+                    for (String fileDiff : diffs.values()) {
+                        diff.write(fileDiff);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs on the given batches only, which are processed in this order.
+     */
+    List<Result> run(List<List<Path>> batches, Phases phases) throws IOException, InterruptedException {
+        ResultCache cache = cacheFile == null ? null : ResultCache.load(cacheFile, cacheFingerprint());
+        SetMethodsStatic.Accumulator acc = recipe.getInitialValue(new InMemoryExecutionContext());
+        ExecutorService executor = executorKind.create(parallelism);
+        Map<Path, String> diffs = diffFile == null ? null : new ConcurrentHashMap<>();
+        try (Writer report = reportFile == null ? null : Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8);
+             StaticMethodCandidates.CsvSink sink = report == null ? null : new StaticMethodCandidates.CsvSink(report, REPORT_BATCH_SIZE)) {
+            Map<Path, Result> results = new TreeMap<>();
+            Map<Path, ResultCache.Entry> reused = new ConcurrentHashMap<>();
+            for (List<Result> scanned : forEach(executor, batches, batch -> scan(batch, acc, cache, reused))) {
+                for (Result result : scanned) {
+                    results.put(result.getSourcePath(), result);
+                }
+            }
+
+            ExecutionContext ctx = new InMemoryExecutionContext();
+            stats.register(ctx);
+            phases.scanned(acc, ctx);
+            if (!reused.isEmpty()) {
+                scanStale(executor, acc, reused, results);
+            }
+            List<List<Path>> toEdit = new ArrayList<>();
+            for (List<Path> batch : batches) {
+                for (Path source : batch) {
+                    Result scanned = results.get(source);
+                    if (scanned.getError() == null && acc.mayChange(root.relativize(source), ctx)) {
+                        toEdit.add(batch);
+                        break;
+                    }
+                }
+            }
+            Map<Path, List<String>> candidates = new ConcurrentHashMap<>();
+            for (List<Result> edited : forEach(executor, toEdit,
+                    batch -> edit(batch, acc, results, sink, diffs, candidates))) {
+                for (Result result : edited) {
+                    results.put(result.getSourcePath(), result);
+                }
+            }
+
+            if (diffs != null) {
+                phases.diffs(new TreeMap<>(diffs));
+            }
+            if (cache != null) {
+                Set<String> referenced = acc.getReferenced();
+                Set<String> called = acc.getCalled();
+                for (Result result : results.values()) {
+                    ResultCache.Entry entry = reused.get(result.getSourcePath());
+                    record(cache, result, acc, entry == null ?
+                            candidates.getOrDefault(result.getSourcePath(), Collections.emptyList()) :
+                            entry.getCandidates(), referenced, called);
+                }
+                cache.save();
+            }
+            return new ArrayList<>(results.values());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs a task for each batch, in the order of the batches, with at most {@code queueCapacity}
+     * tasks submitted and not yet completed.
+     */
+    private <T> List<T> forEach(ExecutorService executor, List<List<Path>> batches, Function<List<Path>, T> task)
+            throws InterruptedException {
+        Semaphore queue = new Semaphore(queueCapacity);
+        List<Future<T>> results = new ArrayList<>(batches.size());
+        for (List<Path> batch : batches) {
+            queue.acquire();
+            try {
+                results.add(executor.submit(() -> {
+                    try {
+                        return task.apply(batch);
+                    } finally {
+                        queue.release();
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                queue.release();
+                throw e;
+            }
+        }
+
+        List<T> completed = new ArrayList<>(results.size());
+        for (Future<T> result : results) {
+            try {
+                completed.add(result.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * @return The stats of all files processed so far.
+     */
+    public SetMethodsStaticStats getStats() {
+        return stats;
+    }
+
+    Path getRoot() {
+        return root;
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    @Nullable
+    Path getCacheFile() {
+        return cacheFile;
+    }
+
+    @Nullable
+    Path getReportFile() {
+        return reportFile;
+    }
+
+    @Nullable
+    Path getDiffFile() {
+        return diffFile;
+    }
+
+    /**
+     * @return A description of everything that decides the outcome of the recipe for a given file content.
+     */
+    private String cacheFingerprint() {
+        return recipe.getName() + "(reportOnly=" + recipe.getReportOnly() +
+               ", maxNodesPerFile=" + recipe.getMaxNodesPerFile() +
+               ", maxMillisPerFile=" + recipe.getMaxMillisPerFile() +
+               ", analysisMode=" + recipe.getAnalysisMode() +
+               ", classpath=" + classpath + ")";
+    }
+
+    /**
+     * The first phase: adds what the source files of a batch declare and reference to the accumulator. A file that
+     * still has the content a previous run left it with is not parsed, its references are taken from the cache
+     * instead.
+     *
+     * @param reused Receives the cache entry of each file that is not parsed.
+     */
+    private List<Result> scan(List<Path> batch, SetMethodsStatic.Accumulator acc, @Nullable ResultCache cache,
+                              Map<Path, ResultCache.Entry> reused) {
+        List<Result> results = new ArrayList<>(batch.size());
+        Map<Path, byte[]> toParse = new LinkedHashMap<>();
+        for (Path source : batch) {
+            try {
+                byte[] content = Files.readAllBytes(source);
+                Path sourcePath = root.relativize(source);
+                ResultCache.Entry cached = cache == null ? null : cache.lookup(sourcePath.toString(), ResultCache.hash(content));
+                if (cached != null) {
+                    reused.put(source, cached);
+                    acc.scanned(sourcePath, false, new HashSet<>(cached.getMethodReferences()),
+                            new HashSet<>(cached.getCallSites()));
+                    results.add(new Result(source, false, true, new ArrayList<>(cached.getStaticMethods()), null));
+                } else {
+                    toParse.put(source, content);
+                }
+            } catch (IOException e) {
+                results.add(new Result(source, false, false, Collections.emptyList(), new UncheckedIOException(e)));
+            }
+        }
+        if (toParse.isEmpty()) {
+            return results;
+        }
+
+        ExecutionContext ctx = new InMemoryExecutionContext();
+        stats.register(ctx);
+        Map<Path, SourceFile> parsed = parse(toParse, ctx, results);
+        for (Map.Entry<Path, SourceFile> sourceFile : parsed.entrySet()) {
+            try {
+                recipe.getScanner(acc).visit(sourceFile.getValue(), ctx);
+                results.add(new Result(sourceFile.getKey(), false, false, Collections.emptyList(), null));
+            } catch (RuntimeException e) {
+                results.add(new Result(sourceFile.getKey(), false, false, Collections.emptyList(), e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Scans the files taken from the cache again when the methods they leave as candidates are no longer referenced
+     * as method references, or invoked on other objects, by the same files as in the cached run, since that may
+     * change the outcome for them. Their own references are already in the accumulator.
+     */
+    private void scanStale(ExecutorService executor, SetMethodsStatic.Accumulator acc,
+                           Map<Path, ResultCache.Entry> reused, Map<Path, Result> results) throws InterruptedException {
+        Set<String> referenced = acc.getReferenced();
+        Set<String> called = acc.getCalled();
+        List<Path> stale = new ArrayList<>();
+        for (Map.Entry<Path, ResultCache.Entry> entry : reused.entrySet()) {
+            ResultCache.Entry cached = entry.getValue();
+            if (ResultCache.dependencies(cached.getCandidates(), referenced, called) != cached.getDependencies()) {
+                stale.add(entry.getKey());
+            }
+        }
+        if (stale.isEmpty()) {
+            return;
+        }
+
+        Collections.sort(stale);
+        List<List<Path>> batches = new ArrayList<>(stale.size() / batchSize + 1);
+        for (int from = 0; from < stale.size(); from += batchSize) {
+            batches.add(stale.subList(from, Math.min(from + batchSize, stale.size())));
+        }
+        for (List<Result> scanned : forEach(executor, batches, batch -> scan(batch, acc, null, reused))) {
+            for (Result result : scanned) {
+                Path source = result.getSourcePath();
+                reused.remove(source);
+                //the file keeps the methods that the cached run made static
+                results.put(source, new Result(source, false, false, results.get(source).getStaticMethods(),
+                        result.getError()));
+            }
+        }
+    }
+
+    /**
+     * The second phase, once every source file has been scanned: parses the files of a batch again, and writes
+     * back those the recipe changes, or adds their diff to the diffs. The files of the batch that the recipe can't
+     * change are parsed for their types only.
+     *
+     * @param candidates Receives the keys of the methods that each file with candidates leaves as candidates.
+     */
+    private List<Result> edit(List<Path> batch, SetMethodsStatic.Accumulator acc, Map<Path, Result> scanned,
+                              @Nullable StaticMethodCandidates.CsvSink sink, @Nullable Map<Path, String> diffs,
+                              Map<Path, List<String>> candidates) {
+        List<Result> results = new ArrayList<>(batch.size());
+        Map<Path, byte[]> toParse = new LinkedHashMap<>();
+        for (Path source : batch) {
+            if (scanned.get(source).getError() != null) {
+                continue;
+            }
+            try {
+                toParse.put(source, Files.readAllBytes(source));
+            } catch (IOException e) {
+                results.add(new Result(source, false, false, Collections.emptyList(), new UncheckedIOException(e)));
+            }
+        }
+
+        ExecutionContext ctx = new InMemoryExecutionContext();
+        stats.register(ctx);
+        if (sink != null) {
+            sink.register(ctx);
+        }
+        Map<Path, SourceFile> parsed = parse(toParse, ctx, results);
+        for (Map.Entry<Path, SourceFile> sourceFile : parsed.entrySet()) {
+            Path source = sourceFile.getKey();
+            SourceFile before = sourceFile.getValue();
+            if (!acc.mayChange(before.getSourcePath(), ctx)) {
+                continue;
+            }
+            //a file taken from the cache in the first phase keeps the methods the cached run made static
+            Result previous = scanned.get(source);
+            try {
+                Tree after = recipe.getVisitor(acc).visit(before, ctx);
+                if (acc.hasCandidates(before.getSourcePath())) {
+                    candidates.put(source, candidateKeys(after == null ? before : (SourceFile) after, acc));
+                }
+                if (after == before || after == null) {
+                    results.add(previous);
+                    continue;
+                }
+
+                Charset charset = before.getCharset() == null ? StandardCharsets.UTF_8 : before.getCharset();
+                write(source, toParse.get(source), ((SourceFile) after).printAll().getBytes(charset), charset, diffs);
+                List<String> staticMethods = staticMethods(before, (SourceFile) after);
+                staticMethods.addAll(0, previous.getStaticMethods());
+                results.add(new Result(source, true, false, staticMethods, null));
+            } catch (IOException e) {
+                results.add(new Result(source, false, false, Collections.emptyList(), new UncheckedIOException(e)));
+            } catch (RuntimeException e) {
+                results.add(new Result(source, false, false, Collections.emptyList(), e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Writes the new content of a changed file, or adds its diff to the diffs.
+     *
+     * @param content The content the file was parsed from.
+     */
+    private void write(Path source, byte[] content, byte[] changed, Charset charset,
+                       @Nullable Map<Path, String> diffs) throws IOException {
+        if (diffs != null) {
+            StringBuilder diff = new StringBuilder();
+            SourcePatch.between(content, changed).writeUnifiedDiff(
+                    root.relativize(source).toString().replace('\\', '/'), charset, diff);
+            diffs.put(source, diff.toString());
+        } else if (outputMode == OutputMode.PATCH) {
+            SourcePatch.between(content, changed).applyTo(source);
+        } else {
+            Files.write(source, changed);
+        }
+    }
+
+    /**
+     * Parses the files together, so that their types are attributed across the batch.
+     *
+     * @param failed Receives a result for each file that can't be parsed.
+     * @return The compilation units, by the path of their file, in the order of the files.
+     */
+    private Map<Path, SourceFile> parse(Map<Path, byte[]> contents, ExecutionContext ctx, List<Result> failed) {
+        List<Parser.Input> inputs = new ArrayList<>(contents.size());
+        for (Map.Entry<Path, byte[]> content : contents.entrySet()) {
+            byte[] bytes = content.getValue();
+            inputs.add(new Parser.Input(content.getKey(), () -> new ByteArrayInputStream(bytes)));
+        }
+
+        Map<Path, SourceFile> parsed = new LinkedHashMap<>();
+        JavaParser parser = parsers.get();
+        try {
+            parser.parseInputs(inputs, root, ctx).forEach(sourceFile -> {
+                if (sourceFile instanceof J.CompilationUnit) {
+                    parsed.put(root.resolve(sourceFile.getSourcePath()), sourceFile);
+                }
+            });
+        } catch (RuntimeException e) {
+            for (Path source : contents.keySet()) {
+                failed.add(new Result(source, false, false, Collections.emptyList(), e));
+            }
+            return Collections.emptyMap();
+        } finally {
+            //release the compiler state of this batch before the worker moves on to the next one
+            parser.reset();
+        }
+
+        for (Path source : contents.keySet()) {
+            if (!parsed.containsKey(source)) {
+                failed.add(new Result(source, false, false, Collections.emptyList(),
+                        new IllegalStateException("Unable to parse " + source)));
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Records the outcome for the content the run leaves the source file with.
+     *
+     * @param candidates The keys of the methods the file leaves as candidates.
+     * @param referenced The keys of the methods referenced as method references anywhere in the run.
+     * @param called     The keys of the methods invoked on other objects anywhere in the run.
+     */
+    private void record(ResultCache cache, Result result, SetMethodsStatic.Accumulator acc,
+                        Collection<String> candidates, Set<String> referenced, Set<String> called) {
+        Path sourcePath = root.relativize(result.getSourcePath());
+        if (result.getError() != null || acc.isSkipped(sourcePath)) {
+            return;
+        }
+        try {
+            cache.record(sourcePath.toString(), new ResultCache.Entry(
+                    ResultCache.hash(Files.readAllBytes(result.getSourcePath())),
+                    ResultCache.dependencies(candidates, referenced, called),
+                    result.getStaticMethods(),
+                    acc.methodReferences(sourcePath),
+                    acc.callSites(sourcePath),
+                    candidates
+            ));
+        } catch (IOException e) {
+            //without an entry, the file is processed again by the next run
+        }
+    }
+
+    /**
+     * @return The keys of the instance methods of the classes of the source file that are private or final.
+     */
+    private static List<String> candidateKeys(SourceFile sourceFile, SetMethodsStatic.Accumulator acc) {
+        List<String> keys = new ArrayList<>();
+        new JavaIsoVisitor<List<String>>() {
+            @Override
+            public J.MethodDeclaration visitMethodDeclaration(J.MethodDeclaration method, List<String> candidates) {
+                String key = StaticMethodAnalysis.hasCandidateModifiers(method) ? acc.key(method) : null;
+                if (key != null) {
+                    candidates.add(key);
+                }
+                //the methods of local and anonymous classes are never candidates
+                return method;
+            }
+        }.visit(sourceFile, keys);
+        return keys;
+    }
+
+    /**
+     * @return The signatures of the methods that are instance methods before, and static methods after the change.
+     */
+    private static List<String> staticMethods(SourceFile before, SourceFile after) {
+        Set<UUID> instanceMethods = new HashSet<>();
+        new JavaIsoVisitor<Set<UUID>>() {
+            @Override
+            public J.MethodDeclaration visitMethodDeclaration(J.MethodDeclaration method, Set<UUID> ids) {
+                if (!method.hasModifier(J.Modifier.Type.Static)) {
+                    ids.add(method.getId());
+                }
+                return super.visitMethodDeclaration(method, ids);
+            }
+        }.visit(before, instanceMethods);
+
+        List<String> staticMethods = new ArrayList<>();
+        new JavaIsoVisitor<List<String>>() {
+            @Override
+            public J.MethodDeclaration visitMethodDeclaration(J.MethodDeclaration method, List<String> signatures) {
+                if (method.hasModifier(J.Modifier.Type.Static) && instanceMethods.contains(method.getId())) {
+                    signatures.add(StaticMethodAnalysis.signature(method));
+                }
+                return super.visitMethodDeclaration(method, signatures);
+            }
+        }.visit(after, staticMethods);
+        return staticMethods;
+    }
+
+    /**
+     * @return The source files in batches of consecutive paths, the batches with the most bytes first.
+     */
+    static List<List<Path>> batches(Path root, int batchSize) throws IOException {
+        List<Path> sources;
+        try (Stream<Path> files = Files.walk(root)) {
+            sources = files.filter(f -> f.toString().endsWith(".java") && Files.isRegularFile(f))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        List<List<Path>> batches = new ArrayList<>(sources.size() / batchSize + 1);
+        Map<List<Path>, Long> sizes = new IdentityHashMap<>();
+        for (int from = 0; from < sources.size(); from += batchSize) {
+            List<Path> batch = sources.subList(from, Math.min(from + batchSize, sources.size()));
+            batches.add(batch);
+            sizes.put(batch, size(batch));
+        }
+        //a stable sort keeps batches of the same size in path order
+        batches.sort(Comparator.comparing((List<Path> batch) -> sizes.get(batch)).reversed());
+        return batches;
+    }
+
+    /**
+     * @return The number of bytes of the source files.
+     */
+    static long size(List<Path> batch) throws IOException {
+        long size = 0;
+        for (Path source : batch) {
+            size += Files.size(source);
+        }
+        return size;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("usage: SetMethodsStaticRunner <source root> [--parallelism N] " +
+                               "[--executor fork-join|threads] [--queue-capacity N] [--batch-size N] " +
+                               "[--max-nodes-per-file N] [--max-millis-per-file N] [--classpath PATH] " +
+                               "[--analysis-mode typed|syntactic] [--output rewrite|patch] " +
+                               "[--cache FILE | --report FILE | --diff FILE]");
+            System.exit(2);
+        }
+
+        long start = System.nanoTime();
+        SetMethodsStaticRunner runner = fromArgs(args);
+        List<Result> results = runner.run();
+        print(results, runner.getStats(), start);
+    }
+
+    /**
+     * @param args The source root, followed by the options of {@link #main(String[])}.
+     */
+    static SetMethodsStaticRunner fromArgs(String[] args) {
+        Path root = Paths.get(args[0]);
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        ExecutorKind executorKind = ExecutorKind.FORK_JOIN;
+        int queueCapacity = -1;
+        int batchSize = 1;
+        Integer maxNodesPerFile = null;
+        Integer maxMillisPerFile = null;
+        List<Path> classpath = null;
+        String analysisMode = null;
+        OutputMode outputMode = null;
+        Path diffFile = null;
+        Path cacheFile = null;
+        Path reportFile = null;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--parallelism":
+                    parallelism = Integer.parseInt(args[++i]);
+                    break;
+                case "--executor":
+                    executorKind = ExecutorKind.valueOf(args[++i].toUpperCase().replace('-', '_'));
+                    break;
+                case "--queue-capacity":
+                    queueCapacity = Integer.parseInt(args[++i]);
+                    break;
+                case "--batch-size":
+                    batchSize = Integer.parseInt(args[++i]);
+                    break;
+                case "--max-nodes-per-file":
+                    maxNodesPerFile = Integer.parseInt(args[++i]);
+                    break;
+                case "--max-millis-per-file":
+                    maxMillisPerFile = Integer.parseInt(args[++i]);
+                    break;
+                case "--classpath":
+                    classpath = new ArrayList<>();
+                    for (String entry : args[++i].split(File.pathSeparator)) {
+                        if (!entry.isEmpty()) {
+                            classpath.add(Paths.get(entry));
+                        }
+                    }
+                    break;
+                case "--analysis-mode":
+                    String mode = args[++i].toLowerCase();
+                    analysisMode = Character.toUpperCase(mode.charAt(0)) + mode.substring(1);
+                    break;
+                case "--output":
+                    outputMode = OutputMode.valueOf(args[++i].toUpperCase());
+                    break;
+                case "--diff":
+                    diffFile = Paths.get(args[++i]);
+                    break;
+                case "--cache":
+                    cacheFile = Paths.get(args[++i]);
+                    break;
+                case "--report":
+                    reportFile = Paths.get(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        return new SetMethodsStaticRunner(root, parallelism, executorKind,
+                queueCapacity < 0 ? parallelism * 4 : queueCapacity, batchSize, maxNodesPerFile, maxMillisPerFile,
+                classpath, analysisMode, outputMode, cacheFile, reportFile, diffFile);
+    }
+
+    /**
+     * Prints the changed files to the standard output and the failed ones to the standard error, then a summary.
+     */
+    static void print(List<Result> results, SetMethodsStaticStats stats, long start) {
+        int changed = 0;
+        int cached = 0;
+        int failed = 0;
+        for (Result result : results) {
+            if (result.getError() != null) {
+                failed++;
+                System.err.println(result.getSourcePath() + ": " + result.getError());
+            } else if (result.isCached()) {
+                cached++;
+            } else if (result.isChanged()) {
+                changed++;
+                System.out.println(result.getSourcePath());
+            }
+        }
+        System.out.printf("%d files, %d changed, %d unchanged since the cached run, %d failed in %d ms%n",
+                results.size(), changed, cached, failed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        System.out.println(stats);
+    }
+}
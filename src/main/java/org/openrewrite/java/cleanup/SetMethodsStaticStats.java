@@ -0,0 +1,256 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.java.cleanup;
+
+import org.openrewrite.ExecutionContext;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timers of {@link SetMethodsStatic}, kept in the {@link ExecutionContext} of a run.
+ * <p>
+ * The recipe adds to the stats it finds in the context, or to new stats it puts there. To collect the stats of many
+ * runs in one place, for example of all the files processed by the workers of a parallel driver, put one instance in
+ * each of their contexts with {@link #register(ExecutionContext)} before running the recipe. All counters can be
+ * updated concurrently.
+ * <p>
+ * The analysis of a class counts locally and adds its counts once it is complete, so the hot paths of the analysis
+ * do not touch shared counters.
+ */
+public class SetMethodsStaticStats {
+    private static final String KEY = SetMethodsStaticStats.class.getName();
+
+    public enum SkipReason {
+        ALREADY_STATIC,
+        NOT_PRIVATE_OR_FINAL,
+
+        /**
+         * Is declared by an inner class, which can't declare static methods before Java 16.
+         */
+        INNER_CLASS,
+
+        SERIALIZATION_HOOK,
+        INSTANCE_ACCESS,
+
+        /**
+         * Does not access instance data itself, but calls a method of the class that does.
+         */
+        CALLS_INSTANCE_METHOD,
+
+        /**
+         * Is referenced as a method reference, which would no longer compile.
+         */
+        METHOD_REFERENCE
+    }
+
+    private final LongAdder classesScanned = new LongAdder();
+    private final LongAdder classesAnalyzed = new LongAdder();
+    private final LongAdder candidatesEvaluated = new LongAdder();
+    private final LongAdder methodsConverted = new LongAdder();
+    private final LongAdder callSitesRewritten = new LongAdder();
+    private final LongAdder identifiersVisited = new LongAdder();
+    private final LongAdder nodesVisited = new LongAdder();
+    private final LongAdder nodesTraversed = new LongAdder();
+    private final LongAdder formatNanos = new LongAdder();
+    private final LongAdder filesSkipped = new LongAdder();
+    private final Map<SkipReason, LongAdder> skipped = new EnumMap<>(SkipReason.class);
+
+    public SetMethodsStaticStats() {
+        for (SkipReason reason : SkipReason.values()) {
+            skipped.put(reason, new LongAdder());
+        }
+    }
+
+    public static SetMethodsStaticStats get(ExecutionContext ctx) {
+        return ctx.computeMessageIfAbsent(KEY, k -> new SetMethodsStaticStats());
+    }
+
+    /**
+     * Makes the recipe report to these stats when it runs with this context.
+     */
+    public SetMethodsStaticStats register(ExecutionContext ctx) {
+        ctx.putMessage(KEY, this);
+        return this;
+    }
+
+    /**
+     * @return The number of classes the scanning phase looked at, including those with an analysis from an
+     * earlier cycle.
+     */
+    public long getClassesScanned() {
+        return classesScanned.sum();
+    }
+
+    public long getClassesAnalyzed() {
+        return classesAnalyzed.sum();
+    }
+
+    /**
+     * @return The number of methods whose body was analyzed.
+     */
+    public long getCandidatesEvaluated() {
+        return candidatesEvaluated.sum();
+    }
+
+    public long getMethodsConverted() {
+        return methodsConverted.sum();
+    }
+
+    /**
+     * @return The number of invocations on a variable that were changed to invocations on the declaring type of
+     * a method that was made static.
+     */
+    public long getCallSitesRewritten() {
+        return callSitesRewritten.sum();
+    }
+
+    public long getSkipped(SkipReason reason) {
+        return skipped.get(reason).sum();
+    }
+
+    public long getIdentifiersVisited() {
+        return identifiersVisited.sum();
+    }
+
+    /**
+     * @return The number of LST elements the analysis visited in the bodies of candidates, or of every method of
+     * a compilation unit when the recipe computed its {@link InstanceMemberUsage}. It grows with the size
+     * of the analyzed code only, whatever its shape, which makes it a measure of the work of the analysis that does
+     * not depend on the machine.
+     */
+    public long getNodesVisited() {
+        return nodesVisited.sum();
+    }
+
+    /**
+     * @return The number of LST elements visited by the passes of the recipe over whole compilation units, which
+     * are the scan for method references and call sites, the visits of class members in both phases, and the rewrite
+     * of call sites. Unlike {@link #getNodesVisited()}, it counts every pass, however many times a tree is visited.
+     */
+    public long getNodesTraversed() {
+        return nodesTraversed.sum();
+    }
+
+    /**
+     * @return The number of source files left unchanged because their analysis exceeded the budget per file.
+     */
+    public long getFilesSkipped() {
+        return filesSkipped.sum();
+    }
+
+    /**
+     * @return The time spent formatting the modifiers of converted methods.
+     */
+    public long getFormatTime(TimeUnit unit) {
+        return unit.convert(formatNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    void classScanned() {
+        classesScanned.increment();
+    }
+
+    void classAnalyzed(int candidates, int identifiers, int nodes) {
+        classesAnalyzed.increment();
+        candidatesEvaluated.add(candidates);
+        identifiersVisited.add(identifiers);
+        nodesVisited.add(nodes);
+    }
+
+    void usageAnalyzed(int identifiers, int nodes) {
+        identifiersVisited.add(identifiers);
+        nodesVisited.add(nodes);
+    }
+
+    void traversed(int nodes) {
+        nodesTraversed.add(nodes);
+    }
+
+    void skipped(SkipReason reason) {
+        skipped.get(reason).increment();
+    }
+
+    void methodConverted(long formatNanos) {
+        methodsConverted.increment();
+        this.formatNanos.add(formatNanos);
+    }
+
+    void callSiteRewritten() {
+        callSitesRewritten.increment();
+    }
+
+    void fileSkipped() {
+        filesSkipped.increment();
+    }
+
+    /**
+     * Writes the counters, for the stats of another process to {@link #add(DataInput) add} them.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        for (LongAdder counter : counters()) {
+            out.writeLong(counter.sum());
+        }
+    }
+
+    /**
+     * Adds counters written by {@link #writeTo(DataOutput)}.
+     */
+    void add(DataInput in) throws IOException {
+        for (LongAdder counter : counters()) {
+            counter.add(in.readLong());
+        }
+    }
+
+    /**
+     * @return All counters, in a fixed order.
+     */
+    private List<LongAdder> counters() {
+        List<LongAdder> counters = new ArrayList<>(Arrays.asList(classesScanned, classesAnalyzed, candidatesEvaluated,
+                methodsConverted, callSitesRewritten, identifiersVisited, nodesVisited, nodesTraversed, formatNanos,
+                filesSkipped));
+        //in the order of the reasons
+        counters.addAll(skipped.values());
+        return counters;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder()
+                .append("classes scanned=").append(getClassesScanned())
+                .append(", classes analyzed=").append(getClassesAnalyzed())
+                .append(", candidates evaluated=").append(getCandidatesEvaluated())
+                .append(", methods converted=").append(getMethodsConverted())
+                .append(", call sites rewritten=").append(getCallSitesRewritten())
+                .append(", identifiers visited=").append(getIdentifiersVisited())
+                .append(", nodes visited=").append(getNodesVisited())
+                .append(", nodes traversed=").append(getNodesTraversed())
+                .append(", files skipped=").append(getFilesSkipped())
+                .append(", format time=").append(getFormatTime(TimeUnit.MILLISECONDS)).append("ms");
+        for (SkipReason reason : SkipReason.values()) {
+            s.append(", skipped ").append(reason.name().toLowerCase().replace('_', ' '))
+                    .append('=').append(getSkipped(reason));
+        }
+        return s.toString();
+    }
+}
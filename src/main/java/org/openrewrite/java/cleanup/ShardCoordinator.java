@@ -0,0 +1,543 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.java.cleanup;
+
+import org.openrewrite.ExecutionContext;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Applies {@link SetMethodsStatic} to every Java source file below a directory with several worker JVMs on this
+ * machine, each of which runs a {@link SetMethodsStaticRunner} on a shard of the files, so that the LSTs and the
+ * analyses of a repository don't all have to fit in one heap.
+ * <p>
+ * The files are cut in batches like the runner does, and the batches are assigned to the shards largest first, each
+ * to the shard with the fewest bytes so far. The workers talk to the coordinator through a socket on the loopback
+ * interface, and wait for each other twice:
+ * <ol>
+ *     <li>Once they have scanned their shard, they send the keys of the methods their files reference as method
+ *     references, and get back those of all shards, which keep the methods from being made static.</li>
+ *     <li>They then send whether the candidates their files declare are made static, by key, and get back the
+ *     decisions of all shards, a key being static if it is in every shard that declares it, so that call sites are
+ *     rewritten across shards.</li>
+ * </ol>
+ * Each worker then edits its shard, and sends back its results, its diffs and its stats. What the workers send is
+ * merged in the order of the keys and of the source paths, so the outcome does not depend on the order in which
+ * the workers finish, and is that of a single runner with the same batch size.
+ * <p>
+ * The workers write the files they change themselves. With a report or a diff file, the coordinator merges those
+ * of the shards: the rows of the report are sorted, and the diff is in the order of the paths. A cache is not
+ * supported, since the files of a shard change from one run to the next. The options of the runner apply to each
+ * worker, so the parallelism is that of a worker.
+ * <pre>
+ * usage: ShardCoordinator &lt;source root&gt; [--shards N] [--worker-jvm-option OPTION]... [options of SetMethodsStaticRunner]
+ * </pre>
+ */
+public class ShardCoordinator {
+    private static final int ACCEPT_TIMEOUT_MILLIS = 1000;
+
+    private final int shards;
+    private final List<String> jvmOptions;
+    private final List<String> workerArgs;
+    private final Path root;
+    private final int batchSize;
+
+    @Nullable
+    private final Path reportFile;
+
+    @Nullable
+    private final Path diffFile;
+
+    private final SetMethodsStaticStats stats = new SetMethodsStaticStats();
+
+    /**
+     * @param jvmOptions The options of the worker JVMs, like their maximum heap size.
+     * @param runnerArgs The source root, followed by the options of {@link SetMethodsStaticRunner#main(String[])}.
+     */
+    public ShardCoordinator(int shards, List<String> jvmOptions, List<String> runnerArgs) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("The number of shards must be positive");
+        }
+        SetMethodsStaticRunner runner = SetMethodsStaticRunner.fromArgs(runnerArgs.toArray(new String[0]));
+        if (runner.getCacheFile() != null) {
+            throw new IllegalArgumentException("A cache can't be shared by shards");
+        }
+        this.shards = shards;
+        this.jvmOptions = new ArrayList<>(jvmOptions);
+        this.root = runner.getRoot();
+        this.batchSize = runner.getBatchSize();
+        this.reportFile = runner.getReportFile();
+        this.diffFile = runner.getDiffFile();
+
+        //every worker gets a report and a diff file of its own
+        this.workerArgs = new ArrayList<>();
+        workerArgs.add(runnerArgs.get(0));
+        for (int i = 1; i < runnerArgs.size(); i += 2) {
+            if (!"--report".equals(runnerArgs.get(i)) && !"--diff".equals(runnerArgs.get(i))) {
+                workerArgs.add(runnerArgs.get(i));
+                workerArgs.add(runnerArgs.get(i + 1));
+            }
+        }
+    }
+
+    /**
+     * @return The stats of all workers that completed.
+     */
+    public SetMethodsStaticStats getStats() {
+        return stats;
+    }
+
+    public List<SetMethodsStaticRunner.Result> run() throws IOException, InterruptedException {
+        List<List<Path>> batches = SetMethodsStaticRunner.batches(root, batchSize);
+        long[] sizes = new long[batches.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = SetMethodsStaticRunner.size(batches.get(i));
+        }
+        List<List<List<Path>>> assigned = assign(batches, sizes, shards);
+
+        Path workDir = Files.createTempDirectory("set-methods-static-shards");
+        long token = new SecureRandom().nextLong();
+        List<Process> workers = new ArrayList<>(shards);
+        try (ServerSocket server = new ServerSocket(0, shards, InetAddress.getLoopbackAddress())) {
+            for (int shard = 0; shard < shards; shard++) {
+                workers.add(start(shard, server.getLocalPort(), token, workDir));
+            }
+
+            Map<Path, SetMethodsStaticRunner.Result> results = new TreeMap<>();
+            SortedMap<Path, String> diffs = new TreeMap<>();
+            Connection[] connections = accept(server, token, workers);
+            try {
+                for (int shard = 0; shard < shards; shard++) {
+                    writeBatches(connections[shard].out, assigned.get(shard));
+                    connections[shard].out.flush();
+                }
+
+                SortedSet<String> referenced = new TreeSet<>();
+                for (Connection connection : connections) {
+                    referenced.addAll(readStrings(connection.in));
+                }
+                for (Connection connection : connections) {
+                    writeStrings(connection.out, referenced);
+                    connection.out.flush();
+                }
+
+                SortedMap<String, Boolean> decisions = new TreeMap<>();
+                for (Connection connection : connections) {
+                    for (Map.Entry<String, Boolean> decision : readDecisions(connection.in).entrySet()) {
+                        decisions.merge(decision.getKey(), decision.getValue(), Boolean::logicalAnd);
+                    }
+                }
+                for (Connection connection : connections) {
+                    writeDecisions(connection.out, decisions);
+                    connection.out.flush();
+                }
+
+                for (Connection connection : connections) {
+                    for (SetMethodsStaticRunner.Result result : readResults(connection.in)) {
+                        results.put(result.getSourcePath(), result);
+                    }
+                    diffs.putAll(readDiffs(connection.in));
+                    stats.add(connection.in);
+                }
+            } catch (EOFException e) {
+                throw new IOException("A worker exited before it was done, see its output", e);
+            } finally {
+                for (Connection connection : connections) {
+                    connection.socket.close();
+                }
+            }
+
+            for (int shard = 0; shard < shards; shard++) {
+                int exitValue = workers.get(shard).waitFor();
+                if (exitValue != 0) {
+                    throw new IllegalStateException("Worker " + shard + " exited with " + exitValue);
+                }
+            }
+            if (diffFile != null) {
+                try (Writer diff = Files.newBufferedWriter(diffFile, StandardCharsets.UTF_8)) {
+                    for (String fileDiff : diffs.values()) {
+                        diff.write(fileDiff);
+                    }
+                }
+            }
+            if (reportFile != null) {
+                mergeReports(workDir);
+            }
+            return new ArrayList<>(results.values());
+        } finally {
+            for (Process worker : workers) {
+                worker.destroyForcibly();
+            }
+            delete(workDir);
+        }
+    }
+
+    /**
+     * Assigns the items to the shards by the longest-processing-time-first rule: largest first, each to the shard
+     * with the smallest total so far, the first one among equals.
+     *
+     * @return The items of each shard, largest first.
+     */
+    static <T> List<List<T>> assign(List<T> items, long[] sizes, int shards) {
+        Integer[] order = new Integer[items.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        //a stable sort keeps items of the same size in their order
+        Arrays.sort(order, (a, b) -> Long.compare(sizes[b], sizes[a]));
+
+        List<List<T>> assigned = new ArrayList<>(shards);
+        long[] totals = new long[shards];
+        PriorityQueue<Integer> smallest = new PriorityQueue<>(shards, (a, b) -> totals[a] != totals[b] ?
+                Long.compare(totals[a], totals[b]) : Integer.compare(a, b));
+        for (int shard = 0; shard < shards; shard++) {
+            assigned.add(new ArrayList<>());
+            smallest.add(shard);
+        }
+        for (int i : order) {
+            int shard = smallest.remove();
+            assigned.get(shard).add(items.get(i));
+            totals[shard] += sizes[i];
+            smallest.add(shard);
+        }
+        return assigned;
+    }
+
+    private Process start(int shard, int port, long token, Path workDir) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Worker.class.getName());
+        command.add(Integer.toString(port));
+        command.add(Long.toString(token));
+        command.add(Integer.toString(shard));
+        command.addAll(workerArgs);
+        if (reportFile != null) {
+            command.add("--report");
+            command.add(report(workDir, shard).toString());
+        }
+        if (diffFile != null) {
+            //only turns the diff on, the worker sends its diffs instead of writing them
+            command.add("--diff");
+            command.add(workDir.resolve("shard-" + shard + ".diff").toString());
+        }
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    /**
+     * @return The connection of each worker, by its shard, once they are all connected.
+     */
+    private Connection[] accept(ServerSocket server, long token, List<Process> workers) throws IOException {
+        Connection[] connections = new Connection[workers.size()];
+        server.setSoTimeout(ACCEPT_TIMEOUT_MILLIS);
+        try {
+            for (int connected = 0; connected < connections.length; ) {
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketTimeoutException e) {
+                    for (int shard = 0; shard < workers.size(); shard++) {
+                        if (connections[shard] == null && !workers.get(shard).isAlive()) {
+                            throw new IllegalStateException("Worker " + shard + " exited before it connected");
+                        }
+                    }
+                    continue;
+                }
+                Connection connection = new Connection(socket);
+                int shard = connection.in.readLong() == token ? connection.in.readInt() : -1;
+                if (shard < 0 || shard >= connections.length || connections[shard] != null) {
+                    socket.close();
+                    continue;
+                }
+                connections[shard] = connection;
+                connected++;
+            }
+            return connections;
+        } catch (IOException | RuntimeException e) {
+            for (Connection connection : connections) {
+                if (connection != null) {
+                    connection.socket.close();
+                }
+            }
+            throw e;
+        }
+    }
+
+    private static Path report(Path workDir, int shard) {
+        return workDir.resolve("shard-" + shard + ".csv");
+    }
+
+    /**
+     * Writes the header of the reports of the shards once, followed by all their rows in order.
+     */
+    private void mergeReports(Path workDir) throws IOException {
+        String header = null;
+        List<String> rows = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            List<String> lines = Files.readAllLines(report(workDir, shard), StandardCharsets.UTF_8);
+            if (!lines.isEmpty()) {
+                header = lines.get(0);
+                rows.addAll(lines.subList(1, lines.size()));
+            }
+        }
+        Collections.sort(rows);
+        try (Writer report = Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8)) {
+            if (header != null) {
+                report.write(header);
+                report.write('\n');
+            }
+            for (String row : rows) {
+                report.write(row);
+                report.write('\n');
+            }
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            paths = new ArrayList<>();
+            walk.forEach(paths::add);
+        }
+        //children before their parent
+        Collections.reverse(paths);
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private static class Connection {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+    }
+
+    /**
+     * The main class of the worker JVMs, which takes the port of the coordinator, the token that it expects back,
+     * the shard of the worker and the arguments of its {@link SetMethodsStaticRunner}.
+     */
+    static class Worker {
+        public static void main(String[] args) throws Exception {
+            int port = Integer.parseInt(args[0]);
+            long token = Long.parseLong(args[1]);
+            int shard = Integer.parseInt(args[2]);
+            SetMethodsStaticRunner runner = SetMethodsStaticRunner.fromArgs(Arrays.copyOfRange(args, 3, args.length));
+
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                Connection coordinator = new Connection(socket);
+                DataInputStream in = coordinator.in;
+                DataOutputStream out = coordinator.out;
+                out.writeLong(token);
+                out.writeInt(shard);
+                out.flush();
+
+                SortedMap<Path, String> diffs = new TreeMap<>();
+                List<SetMethodsStaticRunner.Result> results = runner.run(readBatches(in), new SetMethodsStaticRunner.Phases() {
+                    @Override
+                    public void scanned(SetMethodsStatic.Accumulator acc, ExecutionContext ctx) throws IOException {
+                        writeStrings(out, new TreeSet<>(acc.getReferenced()));
+                        out.flush();
+                        acc.referencedElsewhere(readStrings(in));
+
+                        writeDecisions(out, acc.decisions(ctx));
+                        out.flush();
+                        acc.decidedElsewhere(readDecisions(in));
+                    }
+
+                    @Override
+                    public void diffs(SortedMap<Path, String> shardDiffs) {
+                        diffs.putAll(shardDiffs);
+                    }
+                });
+
+                writeResults(out, results);
+                writeDiffs(out, diffs);
+                runner.getStats().writeTo(out);
+                out.flush();
+            }
+        }
+    }
+
+    private static void writeBatches(DataOutput out, List<List<Path>> batches) throws IOException {
+        out.writeInt(batches.size());
+        for (List<Path> batch : batches) {
+            out.writeInt(batch.size());
+            for (Path source : batch) {
+                writeString(out, source.toString());
+            }
+        }
+    }
+
+    private static List<List<Path>> readBatches(DataInput in) throws IOException {
+        int count = in.readInt();
+        List<List<Path>> batches = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int size = in.readInt();
+            List<Path> batch = new ArrayList<>(size);
+            for (int j = 0; j < size; j++) {
+                batch.add(Paths.get(readString(in)));
+            }
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    private static void writeDecisions(DataOutput out, SortedMap<String, Boolean> decisions) throws IOException {
+        out.writeInt(decisions.size());
+        for (Map.Entry<String, Boolean> decision : decisions.entrySet()) {
+            writeString(out, decision.getKey());
+            out.writeBoolean(decision.getValue());
+        }
+    }
+
+    private static Map<String, Boolean> readDecisions(DataInput in) throws IOException {
+        int count = in.readInt();
+        Map<String, Boolean> decisions = new HashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            decisions.put(readString(in), in.readBoolean());
+        }
+        return decisions;
+    }
+
+    private static void writeResults(DataOutput out, List<SetMethodsStaticRunner.Result> results) throws IOException {
+        out.writeInt(results.size());
+        for (SetMethodsStaticRunner.Result result : results) {
+            writeString(out, result.getSourcePath().toString());
+            out.writeBoolean(result.isChanged());
+            writeStrings(out, result.getStaticMethods());
+            out.writeBoolean(result.getError() != null);
+            if (result.getError() != null) {
+                writeString(out, result.getError().toString());
+            }
+        }
+    }
+
+    /**
+     * The errors of the workers are only known by their description.
+     */
+    private static List<SetMethodsStaticRunner.Result> readResults(DataInput in) throws IOException {
+        int count = in.readInt();
+        List<SetMethodsStaticRunner.Result> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Path sourcePath = Paths.get(readString(in));
+            boolean changed = in.readBoolean();
+            List<String> staticMethods = readStrings(in);
+            Throwable error = in.readBoolean() ? new IllegalStateException(readString(in)) : null;
+            results.add(new SetMethodsStaticRunner.Result(sourcePath, changed, false, staticMethods, error));
+        }
+        return results;
+    }
+
+    private static void writeDiffs(DataOutput out, SortedMap<Path, String> diffs) throws IOException {
+        out.writeInt(diffs.size());
+        for (Map.Entry<Path, String> diff : diffs.entrySet()) {
+            writeString(out, diff.getKey().toString());
+            writeString(out, diff.getValue());
+        }
+    }
+
+    private static Map<Path, String> readDiffs(DataInput in) throws IOException {
+        int count = in.readInt();
+        Map<Path, String> diffs = new HashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            diffs.put(Paths.get(readString(in)), readString(in));
+        }
+        return diffs;
+    }
+
+    private static void writeStrings(DataOutput out, Collection<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            writeString(out, s);
+        }
+    }
+
+    private static List<String> readStrings(DataInput in) throws IOException {
+        int count = in.readInt();
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(readString(in));
+        }
+        return strings;
+    }
+
+    /**
+     * Unlike {@link DataOutput#writeUTF(String)}, not limited to 64 KB, which a diff can exceed.
+     */
+    private static void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("usage: ShardCoordinator <source root> [--shards N] [--worker-jvm-option OPTION]... " +
+                               "[options of SetMethodsStaticRunner]");
+            System.exit(2);
+        }
+
+        int shards = 2;
+        List<String> jvmOptions = new ArrayList<>();
+        List<String> runnerArgs = new ArrayList<>();
+        runnerArgs.add(args[0]);
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--shards":
+                    shards = Integer.parseInt(args[++i]);
+                    break;
+                case "--worker-jvm-option":
+                    jvmOptions.add(args[++i]);
+                    break;
+                default:
+                    //every option of the runner has a value
+                    runnerArgs.add(args[i]);
+                    runnerArgs.add(args[++i]);
+            }
+        }
+
+        long start = System.nanoTime();
+        ShardCoordinator coordinator = new ShardCoordinator(shards, jvmOptions, runnerArgs);
+        List<SetMethodsStaticRunner.Result> results = coordinator.run();
+        SetMethodsStaticRunner.print(results, coordinator.getStats(), start);
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.java.cleanup;
+
+import lombok.Value;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The changes between two versions of the content of a source file, as blocks of whole lines at byte offsets.
+ * A patch can be applied to the file, which writes only the changed lines when they keep their length, or be
+ * written out as a unified diff.
+ * <p>
+ * Lines are compared with the algorithm of Myers, which takes time in the number of lines times the number of lines
+ * that changed. The lines before the first and after the last change are matched up front, so a recipe that changes
+ * a few lines of a large file only pays for the lines in between. When more than {@value #MAX_EDITS} lines are
+ * added or removed, all the lines in between are taken as a single change.
+ */
+final class SourcePatch {
+    private static final int MAX_EDITS = 1024;
+    private static final int CONTEXT = 3;
+
+    private final Lines before;
+    private final Lines after;
+    private final List<Change> changes;
+
+    private SourcePatch(Lines before, Lines after, List<Change> changes) {
+        this.before = before;
+        this.after = after;
+        this.changes = changes;
+    }
+
+    static SourcePatch between(byte[] before, byte[] after) {
+        Lines a = new Lines(before);
+        Lines b = new Lines(after);
+        int n = a.count();
+        int m = b.count();
+
+        int prefix = 0;
+        while (prefix < n && prefix < m && a.sameLine(prefix, b, prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < n - prefix && suffix < m - prefix && a.sameLine(n - 1 - suffix, b, m - 1 - suffix)) {
+            suffix++;
+        }
+        return new SourcePatch(a, b, diff(a, prefix, n - prefix - suffix, b, prefix, m - prefix - suffix));
+    }
+
+    /**
+     * A block of lines of the old content, replaced by a block of lines of the new one. Either block may be empty.
+     * Lines are numbered from 0, and the ends are exclusive.
+     */
+    @Value
+    static class Change {
+        int beforeLine;
+        int beforeEnd;
+        int afterLine;
+        int afterEnd;
+    }
+
+    List<Change> getChanges() {
+        return changes;
+    }
+
+    /**
+     * @return The offset in the old content of the first byte that the change replaces.
+     */
+    int offset(Change change) {
+        return before.start(change.getBeforeLine());
+    }
+
+    /**
+     * @return The number of bytes of the old content that the change replaces.
+     */
+    int length(Change change) {
+        return before.start(change.getBeforeEnd()) - before.start(change.getBeforeLine());
+    }
+
+    /**
+     * @return The bytes of the new content that replace those of the old one.
+     */
+    byte[] replacement(Change change) {
+        return Arrays.copyOfRange(after.content, after.start(change.getAfterLine()), after.start(change.getAfterEnd()));
+    }
+
+    /**
+     * Changes the file to the new content, after checking that it still has the old content.
+     * <p>
+     * When every change keeps the length of what it replaces, only the changed bytes are written, in place. A write
+     * that is interrupted may then leave some of the changes out, but every line of the file is either its old or its
+     * new version, and the bytes between the changes are never written. Otherwise, the bytes after the first change
+     * move, and the new content is written to a temporary file next to the file, which then replaces it in one atomic
+     * move, so that the file has either content, at the cost of writing all of it.
+     *
+     * @throws IOException If the file no longer has the old content, for one, and is then left unchanged.
+     */
+    void applyTo(Path file) throws IOException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        if (keepsOffsets()) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                checkUnchanged(file, channel);
+                for (Change change : changes) {
+                    write(channel, after.start(change.getAfterLine()), after.start(change.getAfterEnd()), offset(change));
+                }
+            }
+            return;
+        }
+
+        //a symbolic link is kept, and the file it links to is replaced
+        Path target = file.toRealPath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            PosixFileAttributeView attributes = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+            if (attributes != null) {
+                Files.setPosixFilePermissions(temp, attributes.readAttributes().permissions());
+            }
+            Files.write(temp, after.content);
+            try (FileChannel channel = FileChannel.open(target, StandardOpenOption.READ)) {
+                checkUnchanged(file, channel);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Compares the size and the hash of the content of the file with those of the old content.
+     */
+    private void checkUnchanged(Path file, FileChannel channel) throws IOException {
+        if (channel.size() == before.content.length) {
+            ByteBuffer content = ByteBuffer.allocate(before.content.length);
+            while (content.hasRemaining()) {
+                if (channel.read(content, content.position()) < 0) {
+                    break;
+                }
+            }
+            if (!content.hasRemaining() && ResultCache.hash(content.array()) == ResultCache.hash(before.content)) {
+                return;
+            }
+        }
+        throw new IOException(file + " was changed since it was read");
+    }
+
+    private boolean keepsOffsets() {
+        for (Change change : changes) {
+            if (after.start(change.getAfterEnd()) - after.start(change.getAfterLine()) != length(change)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void write(FileChannel channel, int from, int to, long position) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(after.content, from, to - from);
+        while (bytes.hasRemaining()) {
+            position += channel.write(bytes, position);
+        }
+    }
+
+    /**
+     * Appends the changes as a unified diff, with {@value #CONTEXT} lines of context, and nothing if there are none.
+     *
+     * @param path The path of the file, relative to the root the diff is applied from.
+     */
+    void writeUnifiedDiff(String path, Charset charset, StringBuilder out) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        out.append("--- a/").append(path).append('\n')
+                .append("+++ b/").append(path).append('\n');
+
+        int first = 0;
+        while (first < changes.size()) {
+            int last = first;
+            while (last + 1 < changes.size() &&
+                   changes.get(last + 1).getBeforeLine() - changes.get(last).getBeforeEnd() <= 2 * CONTEXT) {
+                last++;
+            }
+            Change firstChange = changes.get(first);
+            Change lastChange = changes.get(last);
+            int beforeFrom = Math.max(0, firstChange.getBeforeLine() - CONTEXT);
+            int beforeTo = Math.min(before.count(), lastChange.getBeforeEnd() + CONTEXT);
+            int afterFrom = firstChange.getAfterLine() - (firstChange.getBeforeLine() - beforeFrom);
+            int afterTo = lastChange.getAfterEnd() + (beforeTo - lastChange.getBeforeEnd());
+
+            out.append("@@ -").append(range(beforeFrom, beforeTo))
+                    .append(" +").append(range(afterFrom, afterTo)).append(" @@\n");
+            int line = beforeFrom;
+            for (int c = first; c <= last; c++) {
+                Change change = changes.get(c);
+                for (; line < change.getBeforeLine(); line++) {
+                    appendLine(' ', before, line, charset, out);
+                }
+                for (; line < change.getBeforeEnd(); line++) {
+                    appendLine('-', before, line, charset, out);
+                }
+                for (int added = change.getAfterLine(); added < change.getAfterEnd(); added++) {
+                    appendLine('+', after, added, charset, out);
+                }
+            }
+            for (; line < beforeTo; line++) {
+                appendLine(' ', before, line, charset, out);
+            }
+            first = last + 1;
+        }
+    }
+
+    private static String range(int from, int to) {
+        int count = to - from;
+        if (count == 0) {
+            return from + ",0";
+        }
+        return count == 1 ? Integer.toString(from + 1) : (from + 1) + "," + count;
+    }
+
+    private static void appendLine(char prefix, Lines lines, int line, Charset charset, StringBuilder out) {
+        int start = lines.start(line);
+        int end = lines.start(line + 1);
+        out.append(prefix).append(new String(lines.content, start, end - start, charset));
+        if (lines.content[end - 1] != '\n') {
+            out.append("\n\\ No newline at end of file\n");
+        }
+    }
+
+    /**
+     * Finds the shortest sequence of lines to remove and add between the given ranges of lines, or takes the ranges
+     * as a single change if that sequence is longer than {@value #MAX_EDITS}.
+     */
+    private static List<Change> diff(Lines a, int aFrom, int n, Lines b, int bFrom, int m) {
+        if (n == 0 && m == 0) {
+            return Collections.emptyList();
+        }
+        int max = Math.min(n + m, MAX_EDITS);
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+
+        //the furthest x reached on each diagonal before each round, which is all the backtracking needs
+        List<int[]> trace = new ArrayList<>();
+        for (int d = 0; d <= max; d++) {
+            trace.add(Arrays.copyOfRange(v, offset - d - 1, offset + d + 2));
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]) ?
+                        v[offset + k + 1] :
+                        v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a.sameLine(aFrom + x, b, bFrom + y)) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    return changes(trace, n, m, aFrom, bFrom);
+                }
+            }
+        }
+        return Collections.singletonList(new Change(aFrom, aFrom + n, bFrom, bFrom + m));
+    }
+
+    private static List<Change> changes(List<int[]> trace, int n, int m, int aFrom, int bFrom) {
+        boolean[] removed = new boolean[n];
+        boolean[] added = new boolean[m];
+        int x = n;
+        int y = m;
+        for (int d = trace.size() - 1; d >= 0; d--) {
+            int[] v = trace.get(d);
+            int k = x - y;
+            //v holds the diagonals -d - 1 to d + 1
+            int previousK = k == -d || (k != d && v[k + d] < v[k + d + 2]) ? k + 1 : k - 1;
+            int previousX = v[previousK + d + 1];
+            int previousY = previousX - previousK;
+            while (x > previousX && y > previousY) {
+                x--;
+                y--;
+            }
+            if (d > 0) {
+                if (x == previousX) {
+                    added[previousY] = true;
+                } else {
+                    removed[previousX] = true;
+                }
+            }
+            x = previousX;
+            y = previousY;
+        }
+
+        List<Change> changes = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if ((i < n && removed[i]) || (j < m && added[j])) {
+                int i0 = i;
+                int j0 = j;
+                while ((i < n && removed[i]) || (j < m && added[j])) {
+                    if (i < n && removed[i]) {
+                        i++;
+                    } else {
+                        j++;
+                    }
+                }
+                changes.add(new Change(aFrom + i0, aFrom + i, bFrom + j0, bFrom + j));
+            } else {
+                i++;
+                j++;
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * The lines of a content, each with its line terminator, and a hash of each line to compare them quickly.
+     */
+    private static class Lines {
+        final byte[] content;
+
+        /**
+         * The offset of each line, followed by the length of the content.
+         */
+        private final int[] starts;
+
+        private final int[] hashes;
+
+        Lines(byte[] content) {
+            this.content = content;
+            int count = 0;
+            for (byte c : content) {
+                if (c == '\n') {
+                    count++;
+                }
+            }
+            if (content.length > 0 && content[content.length - 1] != '\n') {
+                count++;
+            }
+            starts = new int[count + 1];
+            hashes = new int[count];
+            int line = 0;
+            int hash = 1;
+            for (int i = 0; i < content.length; i++) {
+                hash = 31 * hash + content[i];
+                if (content[i] == '\n' || i == content.length - 1) {
+                    hashes[line] = hash;
+                    starts[++line] = i + 1;
+                    hash = 1;
+                }
+            }
+        }
+
+        int count() {
+            return hashes.length;
+        }
+
+        int start(int line) {
+            return starts[line];
+        }
+
+        boolean sameLine(int line, Lines other, int otherLine) {
+            if (hashes[line] != other.hashes[otherLine]) {
+                return false;
+            }
+            int start = starts[line];
+            int length = starts[line + 1] - start;
+            int otherStart = other.starts[otherLine];
+            if (other.starts[otherLine + 1] - otherStart != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (content[start + i] != other.content[otherStart + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
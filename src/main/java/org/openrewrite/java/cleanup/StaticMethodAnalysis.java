@@ -0,0 +1,636 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.java.cleanup;
+
+import org.openrewrite.Tree;
+import org.openrewrite.java.MethodMatcher;
+import org.openrewrite.java.cleanup.SetMethodsStaticStats.SkipReason;
+import org.openrewrite.java.tree.*;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Decides which methods of a single class can be made static.
+ * <p>
+ * Every private or final instance method of the class is a candidate. A candidate can be made static
+ * when it does not access instance data itself and only calls candidates that can be made static, too.
+ * The calls between candidates form a graph whose strongly connected components are resolved callees
+ * first, so chains of helpers and mutually recursive helpers are decided in a single pass instead of
+ * one recipe cycle per link of the chain.
+ * <p>
+ * With type attribution, the facts are taken from the {@link InstanceMemberUsage} of the compilation unit, which is
+ * computed once for every recipe of the run that needs it. Otherwise, only the bodies of candidates are visited, and
+ * a body is left as soon as it is known to access instance data.
+ * Member classes of the analyzed class are analyzed on their own. Local and anonymous classes declared in a candidate
+ * are part of its body: what they access of the instance of the analyzed class is accessed by the candidate.
+ * <p>
+ * In the syntactic mode, type attribution is not used at all, see {@link InstanceAccessVisitor}. A method invoked
+ * without a receiver is matched by name with the methods of the class: it calls every candidate of that name, and
+ * needs this instance if an instance method of the class that is not a candidate has that name, or if neither the
+ * class nor a static import declares a method of that name, since it may be inherited.
+ * <p>
+ * Inner classes can only declare static methods since Java 16, so the methods of an inner class are only candidates
+ * when the source file is at least at that version.
+ * <p>
+ * A candidate that is referenced as a method reference anywhere in the run can't be made static, since the
+ * reference would no longer compile. Those references are only all known once every source file has been scanned,
+ * so the call graph is kept, without any LST or type attribution in it, and is only resolved by
+ * {@link #resolve(Set, SetMethodsStaticStats)} once the scanning phase is over.
+ */
+final class StaticMethodAnalysis {
+    static final String NO_INSTANCE_ACCESS = "Does not access instance data";
+    static final String CALLS_STATIC_CANDIDATES =
+            "Does not access instance data, and only calls methods of its class that can be made static";
+
+    private final InstanceMemberIndex index;
+
+    /**
+     * The candidates, by their id, and the key of each candidate, by its node in the call graph.
+     */
+    private final Map<UUID, Integer> nodes;
+    private final String[] keys;
+
+    /**
+     * Whether a method of the class that is not a candidate shares the key of the candidate. An invocation with
+     * that key can't be told apart from an invocation of the other method.
+     */
+    private final boolean[] ambiguous;
+
+    /**
+     * The name of each candidate and its position among the statements of the class body, by its node, and the
+     * number of statements, to find the candidates in the same class parsed again, see {@link #reparsed}.
+     */
+    private final String[] names;
+    private final int[] positions;
+    private final int statements;
+
+    @Nullable
+    private final CallGraph graph;
+
+    /**
+     * The methods that can be made static, with the reason why, once resolved.
+     */
+    @Nullable
+    private volatile Map<UUID, String> staticMethods;
+
+    private StaticMethodAnalysis(InstanceMemberIndex index, Map<UUID, Integer> nodes, String[] keys,
+                                 boolean[] ambiguous, String[] names, int[] positions, int statements,
+                                 @Nullable CallGraph graph) {
+        this.index = index;
+        this.nodes = nodes;
+        this.keys = keys;
+        this.ambiguous = ambiguous;
+        this.names = names;
+        this.positions = positions;
+        this.statements = statements;
+        this.graph = graph;
+    }
+
+    /**
+     * @param enclosing            The analysis of the enclosing class, if the class is an inner class.
+     * @param staticMembersAllowed Whether the class can declare static methods, which an inner class can only
+     *                             since Java 16.
+     * @param staticImports        In the syntactic mode, the names of the methods the compilation unit imports
+     *                             statically one by one, or {@code null} to analyze with type attribution.
+     * @param usage                The instance member usage of the compilation unit, if any. The bodies of candidates
+     *                             are only visited without it. It is ignored in the syntactic mode, since it is made
+     *                             with type attribution.
+     * @param budget               The budget of the source file, spent by every node visited.
+     * @throws AnalysisBudget.Exceeded When the budget is spent.
+     */
+    static StaticMethodAnalysis analyze(J.ClassDeclaration classDecl, @Nullable StaticMethodAnalysis enclosing,
+                                        boolean staticMembersAllowed, @Nullable Set<String> staticImports,
+                                        @Nullable InstanceMemberUsage usage,
+                                        SerializableTypes serializableTypes, MethodKeys methodKeys,
+                                        @Nullable AnalysisBudget budget, SetMethodsStaticStats stats) {
+        InstanceMemberIndex index = InstanceMemberIndex.build(classDecl, serializableTypes,
+                enclosing == null ? null : enclosing.index);
+
+        List<Statement> statements = classDecl.getBody().getStatements();
+        List<J.MethodDeclaration> candidates = new ArrayList<>();
+        int[] positions = new int[statements.size()];
+        List<J.MethodDeclaration> others = null;
+        for (int position = 0; position < statements.size(); position++) {
+            Statement s = statements.get(position);
+            if (s instanceof J.MethodDeclaration && !((J.MethodDeclaration) s).isConstructor()) {
+                SkipReason skipReason = skipReason((J.MethodDeclaration) s, index, staticMembersAllowed,
+                        staticImports != null);
+                if (skipReason == null) {
+                    positions[candidates.size()] = position;
+                    candidates.add((J.MethodDeclaration) s);
+                } else {
+                    stats.skipped(skipReason);
+                    if (others == null) {
+                        others = new ArrayList<>();
+                    }
+                    others.add((J.MethodDeclaration) s);
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            stats.classAnalyzed(0, 0, 0);
+            StaticMethodAnalysis analysis = new StaticMethodAnalysis(index, Collections.emptyMap(), new String[0],
+                    new boolean[0], new String[0], new int[0], statements.size(), null);
+            analysis.staticMethods = Collections.emptyMap();
+            return analysis;
+        }
+
+        boolean syntactic = staticImports != null;
+        CallGraph graph = new CallGraph(candidates);
+        if (syntactic) {
+            graph.indexNames(candidates, others, staticImports);
+        }
+        CandidateVisitor visitor = null;
+        for (int i = 0; i < candidates.size(); i++) {
+            InstanceMemberUsage.Usage used = usage == null || syntactic ? null : usage.getUsage(candidates.get(i));
+            if (used != null) {
+                if (used.accessesInstanceData()) {
+                    graph.markInstanceAccess(i);
+                }
+                for (JavaType.Method called : used.getMethodsCalled()) {
+                    graph.called(i, called);
+                }
+            } else {
+                if (visitor == null) {
+                    visitor = new CandidateVisitor(index, syntactic, budget);
+                }
+                visitor.visit(candidates.get(i), graph);
+            }
+        }
+        graph.releaseTypes();
+
+        Set<String> otherKeys = Collections.emptySet();
+        if (others != null) {
+            otherKeys = new HashSet<>();
+            for (J.MethodDeclaration other : others) {
+                otherKeys.add(key(other, syntactic, methodKeys));
+            }
+        }
+
+        Map<UUID, Integer> nodes = new HashMap<>();
+        String[] keys = new String[candidates.size()];
+        boolean[] ambiguous = new boolean[candidates.size()];
+        String[] names = new String[candidates.size()];
+        for (int i = 0; i < candidates.size(); i++) {
+            nodes.put(candidates.get(i).getId(), i);
+            keys[i] = key(candidates.get(i), syntactic, methodKeys);
+            ambiguous[i] = otherKeys.contains(keys[i]);
+            names[i] = candidates.get(i).getSimpleName();
+        }
+        stats.classAnalyzed(candidates.size(), visitor == null ? 0 : visitor.identifiersVisited,
+                visitor == null ? 0 : visitor.nodesVisited);
+        return new StaticMethodAnalysis(index, nodes, keys, ambiguous, names,
+                Arrays.copyOf(positions, candidates.size()), statements.size(), graph);
+    }
+
+    @Nullable
+    private static String key(J.MethodDeclaration method, boolean syntactic, MethodKeys methodKeys) {
+        return syntactic ? methodKeys.nameKey(method.getSimpleName()) : methodKeys.key(method.getMethodType());
+    }
+
+    /**
+     * Decides which candidates can be made static. Only the first call has an effect.
+     *
+     * @param referenced The keys of the methods that are referenced as method references.
+     */
+    synchronized void resolve(Set<String> referenced, SetMethodsStaticStats stats) {
+        if (staticMethods != null || graph == null) {
+            return;
+        }
+
+        boolean[] blocked = new boolean[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            blocked[i] = keys[i] != null && referenced.contains(keys[i]);
+        }
+        boolean[] eligible = graph.resolve(blocked);
+
+        Map<UUID, String> resolved = new HashMap<>();
+        for (Map.Entry<UUID, Integer> node : nodes.entrySet()) {
+            int i = node.getValue();
+            if (eligible[i]) {
+                resolved.put(node.getKey(), graph.callsCandidates(i) ? CALLS_STATIC_CANDIDATES : NO_INSTANCE_ACCESS);
+            } else if (blocked[i]) {
+                stats.skipped(SkipReason.METHOD_REFERENCE);
+            } else {
+                stats.skipped(graph.hasInstanceAccess(i) ? SkipReason.INSTANCE_ACCESS : SkipReason.CALLS_INSTANCE_METHOD);
+            }
+        }
+        staticMethods = Collections.unmodifiableMap(resolved);
+    }
+
+    /**
+     * A check on the modifiers of a method only, for callers that need to rule out methods cheaply.
+     *
+     * @return {@code false} if the method can't be made static whatever its body does.
+     */
+    static boolean hasCandidateModifiers(J.MethodDeclaration m) {
+        //ignore if method is already static, or a constructor
+        if (m.hasModifier(J.Modifier.Type.Static) || m.isConstructor()) {
+            return false;
+        }
+
+        //ignore if it's non-private , non-final
+        return m.hasModifier(J.Modifier.Type.Private) || m.hasModifier(J.Modifier.Type.Final);
+    }
+
+    /**
+     * @return Why the method is not a candidate, or {@code null} if it is one.
+     */
+    @Nullable
+    private static SkipReason skipReason(J.MethodDeclaration m, InstanceMemberIndex index, boolean staticMembersAllowed,
+                                         boolean syntactic) {
+        if (m.hasModifier(J.Modifier.Type.Static)) {
+            return SkipReason.ALREADY_STATIC;
+        }
+        if (!hasCandidateModifiers(m)) {
+            return SkipReason.NOT_PRIVATE_OR_FINAL;
+        }
+        if (!staticMembersAllowed) {
+            return SkipReason.INNER_CLASS;
+        }
+
+        /*
+        ignore following methods if the class implements Serializable
+        todo: instead of using simpleName, it would be more accurate to compare method objects
+         */
+        //without type attribution, a supertype may be Serializable
+        if (syntactic || index.isSerializable()) {
+            switch (m.getSimpleName()) {
+                case "writeObject":
+                case "readObject":
+                case "readObjectNoData":
+                case "readResolve":
+                case "writeReplace":
+                    return SkipReason.SERIALIZATION_HOOK;
+                default:
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return {@code true} if this analysis was made for the current body of the class, and for the current analysis
+     * of its enclosing class.
+     */
+    boolean isAnalysisOf(J.ClassDeclaration classDecl, @Nullable StaticMethodAnalysis enclosing) {
+        return index.isIndexOf(classDecl, enclosing == null ? null : enclosing.index);
+    }
+
+    /**
+     * The methods of a class parsed again from the same source have other ids than those of the class that was
+     * analyzed, but the same positions in the class body.
+     *
+     * @return This analysis, once resolved, for the same class parsed again, or {@code null} if the class body
+     * doesn't have the same candidates at the same positions.
+     */
+    @Nullable
+    StaticMethodAnalysis reparsed(J.ClassDeclaration classDecl) {
+        List<Statement> reparsedStatements = classDecl.getBody().getStatements();
+        if (reparsedStatements.size() != statements) {
+            return null;
+        }
+        Map<UUID, String> resolved = resolved();
+        Map<UUID, Integer> reparsedNodes = new HashMap<>();
+        Map<UUID, String> reparsedStaticMethods = new HashMap<>();
+        for (Map.Entry<UUID, Integer> node : nodes.entrySet()) {
+            int i = node.getValue();
+            Statement s = reparsedStatements.get(positions[i]);
+            if (!(s instanceof J.MethodDeclaration) || !names[i].equals(((J.MethodDeclaration) s).getSimpleName())) {
+                return null;
+            }
+            reparsedNodes.put(s.getId(), i);
+            String reason = resolved.get(node.getKey());
+            if (reason != null) {
+                reparsedStaticMethods.put(s.getId(), reason);
+            }
+        }
+        StaticMethodAnalysis reparsed = new StaticMethodAnalysis(index, reparsedNodes, keys, ambiguous, names,
+                positions, statements, null);
+        reparsed.staticMethods = reparsedStaticMethods;
+        return reparsed;
+    }
+
+    boolean isStatic(J.MethodDeclaration method) {
+        return isStatic(method.getId());
+    }
+
+    boolean isStatic(UUID methodId) {
+        return resolved().containsKey(methodId);
+    }
+
+    /**
+     * @return Why the method can be made static, or {@code null} if it can't.
+     */
+    @Nullable
+    String reason(J.MethodDeclaration method) {
+        return resolved().get(method.getId());
+    }
+
+    boolean isCandidate(UUID methodId) {
+        return nodes.containsKey(methodId);
+    }
+
+    /**
+     * @return The keys of the candidates that no other method of the class shares, by the ids of the candidates.
+     */
+    Map<UUID, String> unambiguousKeys() {
+        Map<UUID, String> unambiguousKeys = new HashMap<>();
+        for (Map.Entry<UUID, Integer> node : nodes.entrySet()) {
+            int i = node.getValue();
+            if (keys[i] != null && !ambiguous[i]) {
+                unambiguousKeys.put(node.getKey(), keys[i]);
+            }
+        }
+        return unambiguousKeys;
+    }
+
+    private Map<UUID, String> resolved() {
+        Map<UUID, String> resolved = staticMethods;
+        if (resolved == null) {
+            throw new IllegalStateException("The analysis has not been resolved yet");
+        }
+        return resolved;
+    }
+
+    /**
+     * @return The declaring type, name and parameter types of the method, in the syntax of a method pattern,
+     * or only its name if it has no type attribution.
+     */
+    static String signature(J.MethodDeclaration method) {
+        JavaType.Method type = method.getMethodType();
+        return type == null ? method.getSimpleName() : MethodMatcher.methodPattern(type);
+    }
+
+    /**
+     * Marks the candidates that access instance data, and adds the calls between candidates to the call graph.
+     * A candidate is left as soon as it is known to access instance data.
+     */
+    private static class CandidateVisitor extends InstanceAccessVisitor<CallGraph> {
+        @Nullable
+        private final AnalysisBudget budget;
+
+        CandidateVisitor(InstanceMemberIndex index, boolean syntactic, @Nullable AnalysisBudget budget) {
+            super(index, syntactic);
+            this.budget = budget;
+        }
+
+        @Override
+        public @Nullable J visit(@Nullable Tree tree, CallGraph graph) {
+            if (budget != null && tree != null) {
+                budget.spend();
+            }
+            return super.visit(tree, graph);
+        }
+
+        @Override
+        int frame(J.MethodDeclaration method, CallGraph graph) {
+            int node = graph.node(method);
+            return node < 0 ? NOT_A_FRAME : node;
+        }
+
+        @Override
+        boolean isComplete(int frame, CallGraph graph) {
+            return graph.hasInstanceAccess(frame);
+        }
+
+        @Override
+        void fieldAccessed(int frame, String name, boolean read, boolean written, CallGraph graph) {
+            graph.markInstanceAccess(frame);
+        }
+
+        @Override
+        void methodCalled(int frame, JavaType.Method method, CallGraph graph) {
+            graph.called(frame, method);
+        }
+
+        @Override
+        void methodCalled(int frame, String name, CallGraph graph) {
+            graph.called(frame, name);
+        }
+
+        @Override
+        void instanceUsed(int frame, CallGraph graph) {
+            graph.markInstanceAccess(frame);
+        }
+    }
+
+    /**
+     * Calls between the candidates of one class. Candidates are numbered in declaration order.
+     */
+    private static class CallGraph {
+        private final Map<UUID, Integer> nodeByMethod = new HashMap<>();
+        private final Map<JavaType.Method, Integer> nodeByType = new HashMap<>();
+
+        /**
+         * In the syntactic mode, the candidates by their name, and the names of the other methods of the class that
+         * are static or statically imported, and of those that are not.
+         */
+        private final Map<String, List<Integer>> nodesByName = new HashMap<>();
+        private final Set<String> staticNames = new HashSet<>();
+        private final Set<String> instanceNames = new HashSet<>();
+        private final boolean[] instanceAccess;
+        private final int[][] calls;
+        private final int[] callCount;
+
+        CallGraph(List<J.MethodDeclaration> candidates) {
+            int n = candidates.size();
+            for (int i = 0; i < n; i++) {
+                J.MethodDeclaration m = candidates.get(i);
+                nodeByMethod.put(m.getId(), i);
+                if (m.getMethodType() != null) {
+                    nodeByType.put(m.getMethodType(), i);
+                }
+            }
+            instanceAccess = new boolean[n];
+            calls = new int[n][];
+            callCount = new int[n];
+        }
+
+        void indexNames(List<J.MethodDeclaration> candidates, @Nullable List<J.MethodDeclaration> others,
+                        Set<String> staticImports) {
+            for (int i = 0; i < candidates.size(); i++) {
+                nodesByName.computeIfAbsent(candidates.get(i).getSimpleName(), k -> new ArrayList<>(1)).add(i);
+            }
+            if (others != null) {
+                for (J.MethodDeclaration other : others) {
+                    (other.hasModifier(J.Modifier.Type.Static) ? staticNames : instanceNames).add(other.getSimpleName());
+                }
+            }
+            staticNames.addAll(staticImports);
+        }
+
+        /**
+         * @return the node of the method, or {@code -1} if it is not a candidate.
+         */
+        int node(J.MethodDeclaration method) {
+            Integer node = nodeByMethod.get(method.getId());
+            return node == null ? -1 : node;
+        }
+
+        /**
+         * @return the node of the method, or {@code -1} if it is not a candidate.
+         */
+        int node(@Nullable JavaType.Method method) {
+            Integer node = method == null ? null : nodeByType.get(method);
+            return node == null ? -1 : node;
+        }
+
+        void markInstanceAccess(int node) {
+            instanceAccess[node] = true;
+        }
+
+        boolean hasInstanceAccess(int node) {
+            return instanceAccess[node];
+        }
+
+        boolean callsCandidates(int node) {
+            return callCount[node] > 0;
+        }
+
+        /**
+         * Drops the references to type attribution once all calls are known, so that a graph kept until it is
+         * resolved does not keep the types of its source file reachable.
+         */
+        void releaseTypes() {
+            nodeByType.clear();
+        }
+
+        /**
+         * A call to another candidate only decides the caller once the callee is decided. Any other instance method,
+         * of this class, of a superclass or of an enclosing class, needs this instance.
+         */
+        void called(int caller, JavaType.Method method) {
+            int callee = node(method);
+            if (callee >= 0) {
+                addCall(caller, callee);
+            } else {
+                markInstanceAccess(caller);
+            }
+        }
+
+        /**
+         * A call known by name only, in the syntactic mode.
+         */
+        void called(int caller, String name) {
+            List<Integer> callees = nodesByName.get(name);
+            if (instanceNames.contains(name) || (callees == null && !staticNames.contains(name))) {
+                markInstanceAccess(caller);
+            } else if (callees != null) {
+                for (int callee : callees) {
+                    addCall(caller, callee);
+                }
+            }
+        }
+
+        void addCall(int caller, int callee) {
+            int[] callees = calls[caller];
+            if (callees == null) {
+                callees = calls[caller] = new int[4];
+            } else if (callCount[caller] == callees.length) {
+                callees = calls[caller] = Arrays.copyOf(callees, callees.length * 2);
+            }
+            callees[callCount[caller]++] = callee;
+        }
+
+        /**
+         * Tarjan's algorithm, unrolled onto explicit stacks so that long chains of helpers cannot overflow
+         * the thread's stack. Components are completed callees first, so by the time a component is
+         * completed every component it calls into has already been decided.
+         *
+         * @param blocked The candidates that can't be made static, whatever their bodies do.
+         * @return for each candidate, whether it can be made static.
+         */
+        boolean[] resolve(boolean[] blocked) {
+            int n = instanceAccess.length;
+            boolean[] eligible = new boolean[n];
+            int[] order = new int[n];
+            int[] low = new int[n];
+            int[] component = new int[n];
+            Arrays.fill(order, -1);
+            Arrays.fill(component, -1);
+
+            int[] stack = new int[n];
+            int stackSize = 0;
+            int[] path = new int[n];
+            int[] nextCall = new int[n];
+            int counter = 0;
+            int components = 0;
+
+            for (int root = 0; root < n; root++) {
+                if (order[root] >= 0) {
+                    continue;
+                }
+                int pathSize = 0;
+                order[root] = low[root] = counter++;
+                stack[stackSize++] = root;
+                path[pathSize++] = root;
+
+                while (pathSize > 0) {
+                    int v = path[pathSize - 1];
+                    if (nextCall[v] < callCount[v]) {
+                        int w = calls[v][nextCall[v]++];
+                        if (order[w] < 0) {
+                            order[w] = low[w] = counter++;
+                            stack[stackSize++] = w;
+                            path[pathSize++] = w;
+                        } else if (component[w] < 0) {
+                            //w is still on the stack, so it belongs to the component of v
+                            low[v] = Math.min(low[v], order[w]);
+                        }
+                        continue;
+                    }
+
+                    pathSize--;
+                    if (pathSize > 0) {
+                        int parent = path[pathSize - 1];
+                        low[parent] = Math.min(low[parent], low[v]);
+                    }
+                    if (low[v] != order[v]) {
+                        continue;
+                    }
+
+                    int first = stackSize;
+                    do {
+                        component[stack[--first]] = components;
+                    } while (stack[first] != v);
+
+                    boolean isStatic = true;
+                    for (int i = first; i < stackSize && isStatic; i++) {
+                        int member = stack[i];
+                        if (instanceAccess[member] || blocked[member]) {
+                            isStatic = false;
+                            break;
+                        }
+                        for (int c = 0; c < callCount[member]; c++) {
+                            int callee = calls[member][c];
+                            if (component[callee] != components && !eligible[callee]) {
+                                isStatic = false;
+                                break;
+                            }
+                        }
+                    }
+                    for (int i = first; i < stackSize; i++) {
+                        eligible[stack[i]] = isStatic;
+                    }
+                    stackSize = first;
+                    components++;
+                }
+            }
+            return eligible;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.java.cleanup.table;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreType;
+import lombok.Value;
+import org.openrewrite.Column;
+import org.openrewrite.DataTable;
+import org.openrewrite.Recipe;
+
+@JsonIgnoreType
+public class SkippedSourceFiles extends DataTable<SkippedSourceFiles.Row> {
+
+    public SkippedSourceFiles(Recipe recipe) {
+        super(recipe,
+                "Skipped source files",
+                "Source files whose analysis exceeded the budget per file, and that were left unchanged, or whose " +
+                "call sites took longer than the budget to rewrite, and were left as they are.");
+    }
+
+    @Value
+    public static class Row {
+        @Column(displayName = "Source path",
+                description = "The path of the skipped source file.")
+        String sourcePath;
+
+        @Column(displayName = "Reason",
+                description = "Which budget the analysis of the source file exceeded.")
+        String reason;
+
+        @Column(displayName = "Nodes visited",
+                description = "The number of LST elements the analysis visited before it gave up.")
+        long nodesVisited;
+
+        @Column(displayName = "Elapsed time",
+                description = "The milliseconds the analysis ran before it gave up.")
+        long elapsedMillis;
+    }
+}
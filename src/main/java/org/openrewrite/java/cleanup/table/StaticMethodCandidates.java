@@ -0,0 +1,156 @@
+/*
+ * Copyright 2021 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * https://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openrewrite.java.cleanup.table;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreType;
+import lombok.Value;
+import org.openrewrite.Column;
+import org.openrewrite.DataTable;
+import org.openrewrite.ExecutionContext;
+import org.openrewrite.Recipe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+@JsonIgnoreType
+public class StaticMethodCandidates extends DataTable<StaticMethodCandidates.Row> {
+    private static final String CSV_SINK = StaticMethodCandidates.class.getName() + ".csvSink";
+
+    public StaticMethodCandidates(Recipe recipe) {
+        super(recipe,
+                "Static method candidates",
+                "Methods that do not access instance data and can be made static.");
+    }
+
+    /**
+     * Adds the row to the CSV sink registered in the context, or to the data table otherwise.
+     * Rows written to a sink are not kept in memory once the sink has flushed them.
+     */
+    public void report(ExecutionContext ctx, Row row) {
+        CsvSink sink = ctx.getMessage(CSV_SINK);
+        if (sink != null) {
+            sink.write(row);
+        } else {
+            insertRow(ctx, row);
+        }
+    }
+
+    @Value
+    public static class Row {
+        @Column(displayName = "Source path",
+                description = "The path of the source file that declares the method.")
+        String sourcePath;
+
+        @Column(displayName = "Class name",
+                description = "The fully qualified name of the class that declares the method.")
+        String className;
+
+        @Column(displayName = "Method signature",
+                description = "The declaring type, name and parameter types of the method.")
+        String methodSignature;
+
+        @Column(displayName = "Reason",
+                description = "Why the method can be made static.")
+        String reason;
+    }
+
+    /**
+     * Writes rows as CSV, buffering at most {@code batchSize} rows before they are written out together.
+     * Rows can be written from many threads at once. Closing the sink writes the remaining rows,
+     * but does not close the underlying writer.
+     */
+    public static class CsvSink implements Closeable {
+        private final Writer writer;
+        private final int batchSize;
+        private List<Row> batch;
+
+        public CsvSink(Writer writer, int batchSize) throws IOException {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("Batch size must be positive");
+            }
+            this.writer = writer;
+            this.batchSize = batchSize;
+            this.batch = new ArrayList<>(batchSize);
+            writer.write("sourcePath,className,methodSignature,reason\n");
+        }
+
+        /**
+         * Makes {@link StaticMethodCandidates#report(ExecutionContext, Row)} write to this sink.
+         */
+        public CsvSink register(ExecutionContext ctx) {
+            ctx.putMessage(CSV_SINK, this);
+            return this;
+        }
+
+        public void write(Row row) {
+            List<Row> full;
+            synchronized (this) {
+                batch.add(row);
+                if (batch.size() < batchSize) {
+                    return;
+                }
+                full = batch;
+                batch = new ArrayList<>(batchSize);
+            }
+            flush(full);
+        }
+
+        @Override
+        public void close() throws IOException {
+            List<Row> remaining;
+            synchronized (this) {
+                remaining = batch;
+                batch = new ArrayList<>(0);
+            }
+            try {
+                flush(remaining);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            synchronized (writer) {
+                writer.flush();
+            }
+        }
+
+        private void flush(List<Row> rows) {
+            StringBuilder csv = new StringBuilder(rows.size() * 128);
+            for (Row row : rows) {
+                csv.append(escape(row.getSourcePath())).append(',')
+                        .append(escape(row.getClassName())).append(',')
+                        .append(escape(row.getMethodSignature())).append(',')
+                        .append(escape(row.getReason())).append('\n');
+            }
+            try {
+                synchronized (writer) {
+                    writer.write(csv.toString());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static String escape(String value) {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+                return value;
+            }
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.openrewrite.java.cleanup;
+
+import org.junit.jupiter.api.Test;
+import org.openrewrite.ExecutionContext;
+import org.openrewrite.InMemoryExecutionContext;
+import org.openrewrite.java.JavaIsoVisitor;
+import org.openrewrite.java.JavaParser;
+import org.openrewrite.java.tree.J;
+import org.openrewrite.java.tree.JavaType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.stream.Collectors.toSet;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InstanceMemberUsageTest {
+
+    private static final String SOURCE = """
+            class Counter {
+                private int count;
+                private int step = 1;
+                private final Object lock = new Object();
+
+                Counter(int step) {
+                    this.step = step;
+                }
+
+                void increment() {
+                    synchronized (lock) {
+                        count += step;
+                    }
+                }
+
+                void reset() {
+                    count = 0;
+                }
+
+                int twice() {
+                    return doubled(count);
+                }
+
+                private int doubled(int value) {
+                    return value * 2;
+                }
+
+                Runnable task() {
+                    return new Runnable() {
+                        private int runs;
+
+                        @Override
+                        public void run() {
+                            runs++;
+                            increment();
+                        }
+                    };
+                }
+
+                Object self() {
+                    return this;
+                }
+
+                class Inner {
+                    int outerCount() {
+                        return count;
+                    }
+                }
+            }
+            """;
+
+    @Test
+    void readsWritesAndCalls() {
+        J.CompilationUnit cu = parse();
+        InstanceMemberUsage usage = InstanceMemberUsage.of(cu, new InMemoryExecutionContext());
+        Map<String, InstanceMemberUsage.Usage> byMethod = usages(cu, usage);
+
+        assertThat(byMethod.get("Counter").getFieldsWritten()).containsExactly("step");
+        assertThat(byMethod.get("Counter").getFieldsRead()).isEmpty();
+
+        assertThat(byMethod.get("increment").getFieldsRead()).containsExactlyInAnyOrder("lock", "count", "step");
+        assertThat(byMethod.get("increment").getFieldsWritten()).containsExactly("count");
+
+        assertThat(byMethod.get("reset").getFieldsRead()).isEmpty();
+        assertThat(byMethod.get("reset").getFieldsWritten()).containsExactly("count");
+
+        assertThat(byMethod.get("twice").getMethodsCalled().stream().map(JavaType.Method::getName).collect(toSet()))
+                .containsExactly("doubled");
+
+        assertThat(byMethod.get("doubled").accessesInstanceData()).isFalse();
+        assertThat(byMethod.get("doubled").getMethodsCalled()).isEmpty();
+
+        //the field and the this of the anonymous class are its own, the method it calls is not
+        assertThat(byMethod.get("task").accessesInstanceData()).isFalse();
+        assertThat(byMethod.get("task").getMethodsCalled().stream().map(JavaType.Method::getName).collect(toSet()))
+                .containsExactly("increment");
+
+        assertThat(byMethod.get("self").isInstanceUsed()).isTrue();
+        assertThat(byMethod.get("outerCount").getFieldsRead()).containsExactly("count");
+    }
+
+    @Test
+    void computedOncePerCompilationUnit() {
+        J.CompilationUnit cu = parse();
+        ExecutionContext ctx = new InMemoryExecutionContext();
+        InstanceMemberUsage usage = InstanceMemberUsage.of(cu, ctx);
+        assertThat(InstanceMemberUsage.of(cu, ctx)).isSameAs(usage);
+        assertThat(InstanceMemberUsage.cached(cu, ctx)).isSameAs(usage);
+
+        //a changed LST keeps the id of the compilation unit, but gets a usage of its own
+        J.CompilationUnit renamed = cu.withSourcePath(cu.getSourcePath().resolveSibling("Renamed.java"));
+        assertThat(InstanceMemberUsage.cached(renamed, ctx)).isNull();
+        assertThat(InstanceMemberUsage.of(renamed, ctx)).isNotSameAs(usage);
+        assertThat(InstanceMemberUsage.cached(cu, ctx)).isNull();
+    }
+
+    @Test
+    void computedBySetMethodsStatic() {
+        J.CompilationUnit cu = parse();
+        ExecutionContext ctx = new InMemoryExecutionContext();
+        SetMethodsStatic recipe = new SetMethodsStatic(null, null, null, null);
+        recipe.getScanner(recipe.getInitialValue(ctx)).visit(cu, ctx);
+
+        //the other recipes of the run find the usage that the scan computed
+        assertThat(InstanceMemberUsage.cached(cu, ctx)).isNotNull();
+    }
+
+    private static J.CompilationUnit parse() {
+        return (J.CompilationUnit) JavaParser.fromJavaVersion().build().parse(SOURCE)
+                .findFirst()
+                .orElseThrow(IllegalStateException::new);
+    }
+
+    private static Map<String, InstanceMemberUsage.Usage> usages(J.CompilationUnit cu, InstanceMemberUsage usage) {
+        Map<String, InstanceMemberUsage.Usage> byMethod = new HashMap<>();
+        new JavaIsoVisitor<Map<String, InstanceMemberUsage.Usage>>() {
+            @Override
+            public J.MethodDeclaration visitMethodDeclaration(J.MethodDeclaration method,
+                                                              Map<String, InstanceMemberUsage.Usage> usages) {
+                InstanceMemberUsage.Usage used = usage.getUsage(method);
+                if (used != null) {
+                    usages.put(method.getSimpleName(), used);
+                }
+                return super.visitMethodDeclaration(method, usages);
+            }
+        }.visit(cu, byMethod);
+        return byMethod;
+    }
+}
@@ -0,0 +1,92 @@
+package org.openrewrite.java.cleanup;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResultCacheTest {
+
+    @Test
+    void outcomesOfPreviousRunAreFoundByContentHash(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("index");
+        long a = ResultCache.hash("class A {}".getBytes(StandardCharsets.UTF_8));
+        long b = ResultCache.hash("class B {}".getBytes(StandardCharsets.UTF_8));
+
+        ResultCache first = ResultCache.load(file, "recipe");
+        assertThat(first.lookup("A.java", a)).isNull();
+        first.record("A.java", entry(a));
+        first.record("B.java", new ResultCache.Entry(b, 42, Arrays.asList("B helper()", "B twice(int)"),
+                Collections.singletonList("A#run/0"), Collections.singletonList("C#apply/1"),
+                Collections.singletonList("B#next/0")));
+        first.save();
+
+        ResultCache second = ResultCache.load(file, "recipe");
+        assertThat(second.lookup("A.java", a)).isEqualTo(entry(a));
+        ResultCache.Entry entryOfB = second.lookup("B.java", b);
+        assertThat(entryOfB).isNotNull();
+        assertThat(entryOfB.getStaticMethods()).containsExactly("B helper()", "B twice(int)");
+        assertThat(entryOfB.getMethodReferences()).containsExactly("A#run/0");
+        assertThat(entryOfB.getCallSites()).containsExactly("C#apply/1");
+        assertThat(entryOfB.getCandidates()).containsExactly("B#next/0");
+        assertThat(entryOfB.getDependencies()).isEqualTo(42);
+        assertThat(second.lookup("B.java", a)).isNull();
+        assertThat(second.lookup("C.java", a)).isNull();
+    }
+
+    @Test
+    void onlyOutcomesOfTheLastRunAreKept(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("index");
+        long a = ResultCache.hash(new byte[]{1});
+
+        ResultCache first = ResultCache.load(file, "recipe");
+        first.record("A.java", entry(a));
+        first.save();
+
+        ResultCache.load(file, "recipe").save();
+        assertThat(ResultCache.load(file, "recipe").lookup("A.java", a)).isNull();
+    }
+
+    @Test
+    void indexOfDifferentlyConfiguredRecipeIsIgnored(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("index");
+        long a = ResultCache.hash(new byte[]{1});
+
+        ResultCache first = ResultCache.load(file, "recipe");
+        first.record("A.java", entry(a));
+        first.save();
+
+        assertThat(ResultCache.load(file, "other recipe").lookup("A.java", a)).isNull();
+    }
+
+    @Test
+    void dependenciesChangeWithTheReferencesAndCallsOfCandidates() {
+        List<String> candidates = Arrays.asList("B#next/0", "B#twice/1");
+        long none = ResultCache.dependencies(candidates, Collections.emptySet(), Collections.emptySet());
+
+        assertThat(ResultCache.dependencies(candidates, Set.of("A#run/0"), Set.of("C#apply/1"))).isEqualTo(none);
+        assertThat(ResultCache.dependencies(candidates, Set.of("B#twice/1"), Collections.emptySet())).isNotEqualTo(none);
+        assertThat(ResultCache.dependencies(candidates, Collections.emptySet(), Set.of("B#twice/1"))).isNotEqualTo(none);
+    }
+
+    @Test
+    void corruptIndexIsIgnored(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("index");
+        Files.write(file, new byte[]{0x53, 0x4d, 0x53});
+
+        assertThat(ResultCache.load(file, "recipe").lookup("A.java", 0)).isNull();
+    }
+
+    private static ResultCache.Entry entry(long hash) {
+        return new ResultCache.Entry(hash, 0, Collections.emptyList(), Collections.emptyList(), Collections.emptyList(),
+                Collections.emptyList());
+    }
+}
@@ -0,0 +1,222 @@
+package org.openrewrite.java.cleanup;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openrewrite.ExecutionContext;
+import org.openrewrite.InMemoryExecutionContext;
+import org.openrewrite.SourceFile;
+import org.openrewrite.Tree;
+import org.openrewrite.java.JavaIsoVisitor;
+import org.openrewrite.java.JavaParser;
+import org.openrewrite.java.tree.J;
+
+import javax.annotation.Nullable;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Measures the bytes that {@link SetMethodsStatic} allocates per node of fixed fixtures, with the allocation
+ * counter of the current thread, and fails when they exceed a threshold.
+ * <p>
+ * The thresholds are relative to what a plain {@link JavaIsoVisitor} allocates to traverse the same fixtures, which
+ * is mostly cursors, so that they hold across JVMs and versions of the visitors. Scanning traverses a source file
+ * about twice: once to find the method references and call sites, and once through the bodies of its methods to
+ * compute the {@link InstanceMemberUsage} the analysis takes its facts from. Anything that allocates a collection or
+ * a stream per node, or per method on top of the usage, shows up as a multiple of the traversal.
+ */
+class SetMethodsStaticAllocationTest {
+    private static final double MAX_SCAN_RATIO = 5;
+    private static final double MAX_FIRST_CYCLE_RATIO = 6;
+    private static final double MAX_UNCHANGED_EDIT_BYTES_PER_NODE = 1;
+    private static final int WARMUPS = 5;
+    private static final int RUNS = 5;
+
+    private static final SetMethodsStatic RECIPE = new SetMethodsStatic(null, null, null, null);
+
+    private static com.sun.management.ThreadMXBean threads;
+    private static List<SourceFile> withCandidates;
+    private static List<SourceFile> withoutCandidates;
+
+    @BeforeAll
+    static void parseFixtures() {
+        threads = threadMXBean();
+        assumeTrue(threads != null, "allocated bytes can't be measured on this JVM");
+        withCandidates = parse(helpers(1_000), callers(200));
+        withoutCandidates = parse(publicMethods(1_000));
+    }
+
+    @Test
+    void scanning() {
+        double traversal = bytesPerNode(withCandidates, SetMethodsStaticAllocationTest::traverse);
+        double scan = bytesPerNode(withCandidates, sources -> scan(sources, new InMemoryExecutionContext()));
+        assertThat(scan)
+                .as("bytes allocated per node by the scan, against %.1f by a traversal", traversal)
+                .isLessThanOrEqualTo(MAX_SCAN_RATIO * traversal);
+    }
+
+    @Test
+    void firstCycle() {
+        double traversal = bytesPerNode(withCandidates, SetMethodsStaticAllocationTest::traverse);
+        double cycle = bytesPerNode(withCandidates, sources -> {
+            ExecutionContext ctx = new InMemoryExecutionContext();
+            SetMethodsStatic.Accumulator acc = scan(sources, ctx);
+            assertThat(edit(sources, acc, ctx)).isTrue();
+        });
+        assertThat(cycle)
+                .as("bytes allocated per node by the scan and the edits, against %.1f by a traversal", traversal)
+                .isLessThanOrEqualTo(MAX_FIRST_CYCLE_RATIO * traversal);
+    }
+
+    /**
+     * Source files without candidates, nor call sites to rewrite, are not visited past the compilation unit.
+     */
+    @Test
+    void editingSourcesThatCantChange() {
+        ExecutionContext ctx = new InMemoryExecutionContext();
+        SetMethodsStatic.Accumulator acc = scan(withoutCandidates, ctx);
+        double edit = bytesPerNode(withoutCandidates, sources -> assertThat(edit(sources, acc, ctx)).isFalse());
+        assertThat(edit)
+                .as("bytes allocated per node by the edit phase")
+                .isLessThanOrEqualTo(MAX_UNCHANGED_EDIT_BYTES_PER_NODE);
+    }
+
+    /**
+     * Runs the work {@link #WARMUPS} times to leave out the warm up of the JIT, then keeps the smallest number of
+     * bytes out of {@link #RUNS} runs.
+     */
+    private static double bytesPerNode(List<SourceFile> sources, Consumer<List<SourceFile>> work) {
+        long thread = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUPS; i++) {
+            work.accept(sources);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            work.accept(sources);
+            best = Math.min(best, threads.getThreadAllocatedBytes(thread) - before);
+        }
+        return (double) best / nodes(sources);
+    }
+
+    @Nullable
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+
+    private static SetMethodsStatic.Accumulator scan(List<SourceFile> sources, ExecutionContext ctx) {
+        SetMethodsStatic.Accumulator acc = RECIPE.getInitialValue(ctx);
+        for (SourceFile source : sources) {
+            RECIPE.getScanner(acc).visit(source, ctx);
+        }
+        return acc;
+    }
+
+    /**
+     * @return {@code true} if any source file was changed.
+     */
+    private static boolean edit(List<SourceFile> sources, SetMethodsStatic.Accumulator acc, ExecutionContext ctx) {
+        boolean changed = false;
+        for (SourceFile source : sources) {
+            changed |= RECIPE.getVisitor(acc).visit(source, ctx) != source;
+        }
+        return changed;
+    }
+
+    private static void traverse(List<SourceFile> sources) {
+        for (SourceFile source : sources) {
+            new JavaIsoVisitor<Integer>().visit(source, 0);
+        }
+    }
+
+    private static long nodes(List<SourceFile> sources) {
+        long[] nodes = new long[1];
+        for (SourceFile source : sources) {
+            new JavaIsoVisitor<Integer>() {
+                @Override
+                public @Nullable J visit(@Nullable Tree tree, Integer p) {
+                    if (tree != null) {
+                        nodes[0]++;
+                    }
+                    return super.visit(tree, p);
+                }
+            }.visit(source, 0);
+        }
+        return nodes[0];
+    }
+
+    private static List<SourceFile> parse(String... sources) {
+        return JavaParser.fromJavaVersion().build()
+                .parse(new InMemoryExecutionContext(Throwable::printStackTrace), sources)
+                .collect(toList());
+    }
+
+    /**
+     * A third of the methods can be made static, a third accesses a field and a third calls a helper through
+     * a lambda.
+     */
+    private static String helpers(int methods) {
+        StringBuilder source = new StringBuilder("""
+                import java.util.function.IntSupplier;
+                
+                public class Helpers {
+                    private int counter;
+                """);
+        for (int i = 0; i < methods; i++) {
+            source.append("    final int m").append(i).append("(int value) {\n");
+            switch (i % 3) {
+                case 0 -> source.append("        int doubled = value * 2;\n")
+                        .append("        return doubled > ").append(i).append(" ? doubled : value;\n");
+                case 1 -> source.append("        counter += value;\n")
+                        .append("        return counter;\n");
+                default -> source.append("        IntSupplier next = () -> m").append(i - 2).append("(value + 1);\n")
+                        .append("        return next.getAsInt();\n");
+            }
+            source.append("    }\n");
+        }
+        return source.append("}\n").toString();
+    }
+
+    /**
+     * Classes that invoke the methods of {@link #helpers} on a field, so that the call sites of the methods made
+     * static are rewritten.
+     */
+    private static String callers(int calls) {
+        StringBuilder source = new StringBuilder("""
+                public class Callers {
+                    private final Helpers helpers = new Helpers();
+                
+                    int all(int value) {
+                        int sum = 0;
+                """);
+        for (int i = 0; i < calls; i++) {
+            source.append("        sum += helpers.m").append(i).append("(value);\n");
+        }
+        return source.append("        return sum;\n    }\n}\n").toString();
+    }
+
+    /**
+     * Public methods that are not final are never made static.
+     */
+    private static String publicMethods(int methods) {
+        StringBuilder source = new StringBuilder("public class PublicMethods {\n    private int counter;\n");
+        for (int i = 0; i < methods; i++) {
+            source.append("    public int m").append(i).append("(int value) {\n")
+                    .append("        return value + ").append(i).append(";\n")
+                    .append("    }\n");
+        }
+        return source.append("}\n").toString();
+    }
+}
@@ -0,0 +1,169 @@
+package org.openrewrite.java.cleanup;
+
+import org.junit.jupiter.api.Test;
+import org.openrewrite.ExecutionContext;
+import org.openrewrite.InMemoryExecutionContext;
+import org.openrewrite.SourceFile;
+import org.openrewrite.Tree;
+import org.openrewrite.java.JavaParser;
+import org.openrewrite.test.RecipeSpec;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Drives one {@link SetMethodsStatic} instance from many threads at once.
+ */
+class SetMethodsStaticConcurrencyTest {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 4;
+
+    @Test
+    void fixturesPassWhenRunConcurrentlyWithOneRecipe() throws Exception {
+        SetMethodsStatic recipe = new SetMethodsStatic(null, null, null, null);
+        SetMethodsStaticTest fixtures = new SetMethodsStaticTest() {
+            @Override
+            public void defaults(RecipeSpec spec) {
+                spec.recipe(recipe);
+            }
+        };
+
+        List<Method> tests = Arrays.stream(SetMethodsStaticTest.class.getDeclaredMethods())
+                .filter(m -> m.isAnnotationPresent(Test.class))
+                .collect(toList());
+        assertThat(tests).isNotEmpty();
+
+        List<Callable<Void>> runs = new ArrayList<>();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (Method test : tests) {
+                runs.add(() -> {
+                    test.setAccessible(true);
+                    try {
+                        test.invoke(fixtures);
+                    } catch (InvocationTargetException e) {
+                        throw new AssertionError(test.getName() + " failed when run concurrently", e.getCause());
+                    }
+                    return null;
+                });
+            }
+        }
+        Collections.shuffle(runs, new Random(42));
+        runConcurrently(runs);
+    }
+
+    @Test
+    void sharedAccumulatorGivesSameResultAsSingleThread() throws Exception {
+        SetMethodsStatic recipe = new SetMethodsStatic(null, null, null, null);
+        List<SourceFile> sourceFiles = JavaParser.fromJavaVersion().build()
+                .parse(new InMemoryExecutionContext(Throwable::printStackTrace), sources(64))
+                .collect(toList());
+
+        List<String> expected = apply(recipe, sourceFiles, 1, new Random(0));
+        assertThat(expected).anyMatch(printed -> printed.contains("private static int helper"));
+
+        for (int round = 0; round < ROUNDS; round++) {
+            assertThat(apply(recipe, sourceFiles, THREADS, new Random(round))).isEqualTo(expected);
+        }
+    }
+
+    /**
+     * Scans and then edits the source files on a pool of threads that share one accumulator. Every file is scanned
+     * twice, in a random order, so that threads analyze the same classes at the same time.
+     *
+     * @return the printed results, in the order of the source files.
+     */
+    private static List<String> apply(SetMethodsStatic recipe, List<SourceFile> sourceFiles,
+                                      int threads, Random random) throws Exception {
+        SetMethodsStatic.Accumulator acc = recipe.getInitialValue(new InMemoryExecutionContext());
+
+        List<Callable<Void>> scans = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            for (SourceFile sourceFile : sourceFiles) {
+                scans.add(() -> {
+                    recipe.getScanner(acc).visit(sourceFile, new InMemoryExecutionContext());
+                    return null;
+                });
+            }
+        }
+        Collections.shuffle(scans, random);
+        runConcurrently(scans, threads);
+
+        String[] printed = new String[sourceFiles.size()];
+        List<Callable<Void>> edits = new ArrayList<>();
+        for (int i = 0; i < sourceFiles.size(); i++) {
+            int index = i;
+            edits.add(() -> {
+                ExecutionContext ctx = new InMemoryExecutionContext();
+                Tree after = recipe.getVisitor(acc).visit(sourceFiles.get(index), ctx);
+                printed[index] = ((SourceFile) after).printAll();
+                return null;
+            });
+        }
+        Collections.shuffle(edits, random);
+        runConcurrently(edits, threads);
+        return Arrays.asList(printed);
+    }
+
+    private static void runConcurrently(List<Callable<Void>> tasks) throws Exception {
+        runConcurrently(tasks, THREADS);
+    }
+
+    private static void runConcurrently(List<Callable<Void>> tasks, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (Future<Void> result : executor.invokeAll(tasks)) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String[] sources(int count) {
+        String[] sources = new String[count];
+        for (int i = 0; i < count; i++) {
+            sources[i] = """
+                    class Concurrent%1$d {
+                        private int counter;
+
+                        private int helper(int value) {
+                            return twice(value) + %1$d;
+                        }
+
+                        private int twice(int value) {
+                            return value * 2;
+                        }
+
+                        private int next() {
+                            return helper(counter++);
+                        }
+
+                        static class Nested {
+                            private String name;
+
+                            private String greet(String who) {
+                                return "hello " + who;
+                            }
+
+                            private String greetMe() {
+                                return greet(name);
+                            }
+                        }
+                    }
+                    """.formatted(i);
+        }
+        return sources;
+    }
+}
@@ -0,0 +1,387 @@
+package org.openrewrite.java.cleanup;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.ToolProvider;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class SetMethodsStaticRunnerTest {
+    private static final String[] CALL_SITE_TREE = {"a/Helper.java", "a/Holder.java", "b/Client.java", "b/Other.java"};
+
+    @Test
+    void typedNeedsAClasspath(@TempDir Path dir) {
+        assertThatIllegalArgumentException().isThrownBy(() ->
+                SetMethodsStaticRunner.fromArgs(new String[]{dir.toString(), "--analysis-mode", "typed"}));
+    }
+
+    /**
+     * Every file is parsed on its own, so the method reference and the inherited field are only attributed
+     * through the classes the sources are compiled to.
+     */
+    @Test
+    void typedAcrossFilesWithAClasspath(@TempDir Path dir) throws Exception {
+        Path root = Files.createDirectories(dir.resolve("src"));
+        Path classes = Files.createDirectories(dir.resolve("classes"));
+        write(root, "a/Numbers.java", """
+                package a;
+
+                public class Numbers {
+                    final int twice(int x) {
+                        return x * 2;
+                    }
+
+                    final int half(int x) {
+                        return x / 2;
+                    }
+                }
+                """);
+        write(root, "a/Uses.java", """
+                package a;
+
+                import java.util.function.IntUnaryOperator;
+
+                class Uses {
+                    IntUnaryOperator op = new Numbers()::twice;
+                }
+                """);
+        write(root, "a/Base.java", """
+                package a;
+
+                public class Base {
+                    protected int count;
+                }
+                """);
+        write(root, "a/Counter.java", """
+                package a;
+
+                class Counter extends Base {
+                    private int size() {
+                        return count;
+                    }
+
+                    private int one() {
+                        return 1;
+                    }
+
+                    int total() {
+                        return size() + one();
+                    }
+                }
+                """);
+        compile(root, classes, "a/Numbers.java", "a/Uses.java", "a/Base.java", "a/Counter.java");
+
+        List<SetMethodsStaticRunner.Result> results = SetMethodsStaticRunner.fromArgs(new String[]{
+                root.toString(), "--batch-size", "1", "--classpath", classes.toString(), "--analysis-mode", "typed"
+        }).run();
+
+        assertThat(results).hasSize(4).allMatch(result -> result.getError() == null);
+        assertThat(Files.readString(root.resolve("a/Numbers.java")))
+                .contains("final int twice")
+                .contains("static int half");
+        assertThat(Files.readString(root.resolve("a/Counter.java")))
+                .contains("private int size()")
+                .contains("private static int one()");
+    }
+
+    @Test
+    void parallelScanAndEditWriteTheFiles(@TempDir Path root) throws Exception {
+        for (int i = 0; i < 16; i++) {
+            write(root, "a/Numbers" + i + ".java", """
+                    package a;
+
+                    class Numbers%d {
+                        private int counter;
+
+                        private int twice(int x) {
+                            return x * 2;
+                        }
+
+                        private int next() {
+                            return counter++;
+                        }
+                    }
+                    """.formatted(i));
+        }
+        write(root, "a/Unchanged.java", """
+                package a;
+
+                class Unchanged {
+                }
+                """);
+
+        List<SetMethodsStaticRunner.Result> results = new SetMethodsStaticRunner(root, 4,
+                SetMethodsStaticRunner.ExecutorKind.FORK_JOIN, 2).run();
+
+        assertThat(results).hasSize(17).allMatch(result -> result.getError() == null);
+        for (SetMethodsStaticRunner.Result result : results) {
+            String content = Files.readString(result.getSourcePath());
+            if (result.getSourcePath().endsWith("Unchanged.java")) {
+                assertThat(result.isChanged()).isFalse();
+                assertThat(result.getStaticMethods()).isEmpty();
+            } else {
+                assertThat(result.isChanged()).isTrue();
+                assertThat(result.getStaticMethods()).hasSize(1);
+                assertThat(content)
+                        .contains("private static int twice(int x)")
+                        .contains("private int next()");
+            }
+        }
+    }
+
+    /**
+     * The edit phase parses the files again, and finds the analyses of their classes by name instead of analyzing
+     * them a second time.
+     */
+    @Test
+    void classesAreAnalyzedOnce(@TempDir Path root) throws Exception {
+        for (int i = 0; i < 2; i++) {
+            write(root, "a/Numbers" + i + ".java", """
+                    package a;
+
+                    class Numbers%d {
+                        private int counter;
+
+                        private int twice(int x) {
+                            return x * 2;
+                        }
+
+                        private int next() {
+                            return counter++;
+                        }
+                    }
+                    """.formatted(i));
+        }
+
+        SetMethodsStaticRunner runner = new SetMethodsStaticRunner(root, 2,
+                SetMethodsStaticRunner.ExecutorKind.THREADS, 2);
+        assertThat(runner.run()).allMatch(SetMethodsStaticRunner.Result::isChanged);
+
+        SetMethodsStaticStats stats = runner.getStats();
+        assertThat(stats.getClassesAnalyzed()).isEqualTo(2);
+        assertThat(stats.getCandidatesEvaluated()).isEqualTo(4);
+        assertThat(stats.getSkipped(SetMethodsStaticStats.SkipReason.INSTANCE_ACCESS)).isEqualTo(2);
+        assertThat(stats.getMethodsConverted()).isEqualTo(2);
+    }
+
+    /**
+     * A file taken from the cache is parsed again to rewrite its call sites, and keeps the methods that the cached
+     * run made static.
+     */
+    @Test
+    void cachedFileWithCallSitesKeepsItsStaticMethods(@TempDir Path dir) throws Exception {
+        Path root = Files.createDirectories(dir.resolve("src"));
+        Path classes = Files.createDirectories(dir.resolve("classes"));
+        write(root, "a/Client.java", """
+                package a;
+
+                class Client {
+                    private int one() {
+                        return 1;
+                    }
+
+                    int use(Numbers numbers) {
+                        return numbers.twice(one());
+                    }
+                }
+                """);
+        write(root, "a/Numbers.java", """
+                package a;
+
+                class Numbers {
+                    private int offset;
+
+                    final int twice(int x) {
+                        return x * 2 + offset;
+                    }
+                }
+                """);
+        compile(root, classes, "a/Client.java", "a/Numbers.java");
+        String[] args = {root.toString(), "--classpath", classes.toString(), "--cache",
+                dir.resolve("cache").toString()};
+
+        SetMethodsStaticRunner.fromArgs(args).run();
+        assertThat(Files.readString(root.resolve("a/Client.java"))).contains("private static int one()");
+
+        write(root, "a/Numbers.java", """
+                package a;
+
+                class Numbers {
+                    final int twice(int x) {
+                        return x * 2;
+                    }
+                }
+                """);
+        List<SetMethodsStaticRunner.Result> results = SetMethodsStaticRunner.fromArgs(args).run();
+
+        assertThat(Files.readString(root.resolve("a/Client.java"))).contains("Numbers.twice(one())");
+        SetMethodsStaticRunner.Result client = results.stream()
+                .filter(result -> result.getSourcePath().endsWith("Client.java"))
+                .findFirst()
+                .orElseThrow();
+        assertThat(client.isChanged()).isTrue();
+        assertThat(client.getStaticMethods()).singleElement().asString().contains("one()");
+    }
+
+    /**
+     * The outcome for a file also depends on the method references of other files, so a cached file is analyzed
+     * again when those change, although its own content doesn't.
+     */
+    @Test
+    void cachedFileIsAnalyzedAgainWhenItsMethodIsNoLongerReferenced(@TempDir Path dir) throws Exception {
+        Path root = Files.createDirectories(dir.resolve("src"));
+        Path classes = Files.createDirectories(dir.resolve("classes"));
+        write(root, "a/Numbers.java", """
+                package a;
+
+                public class Numbers {
+                    final int twice(int x) {
+                        return x * 2;
+                    }
+                }
+                """);
+        write(root, "a/Uses.java", """
+                package a;
+
+                import java.util.function.IntUnaryOperator;
+
+                class Uses {
+                    IntUnaryOperator op = new Numbers()::twice;
+                }
+                """);
+        compile(root, classes, "a/Numbers.java", "a/Uses.java");
+        String[] args = {root.toString(), "--batch-size", "1", "--classpath", classes.toString(), "--cache",
+                dir.resolve("cache").toString()};
+
+        SetMethodsStaticRunner.fromArgs(args).run();
+        assertThat(Files.readString(root.resolve("a/Numbers.java"))).contains("    final int twice");
+
+        write(root, "a/Uses.java", """
+                package a;
+
+                import java.util.function.IntUnaryOperator;
+
+                class Uses {
+                    IntUnaryOperator op = x -> x * 2;
+                }
+                """);
+        List<SetMethodsStaticRunner.Result> results = SetMethodsStaticRunner.fromArgs(args).run();
+
+        assertThat(Files.readString(root.resolve("a/Numbers.java"))).contains("static int twice");
+        SetMethodsStaticRunner.Result numbers = results.stream()
+                .filter(result -> result.getSourcePath().endsWith("Numbers.java"))
+                .findFirst()
+                .orElseThrow();
+        assertThat(numbers.isCached()).isFalse();
+        assertThat(numbers.isChanged()).isTrue();
+
+        //the third run takes both files from the cache
+        assertThat(SetMethodsStaticRunner.fromArgs(args).run()).allMatch(SetMethodsStaticRunner.Result::isCached);
+    }
+
+    /**
+     * The call site is in another batch than the method made static unless the whole tree is one batch, and is
+     * only rewritten because the edit phase parses its batch again once every batch is scanned.
+     */
+    @Test
+    void sameOutcomeForAnyBatchSizeAndExecutor(@TempDir Path dir) throws Exception {
+        Path classes = Files.createDirectories(dir.resolve("classes"));
+        compile(writeCallSiteTree(dir.resolve("compiled")), classes, CALL_SITE_TREE);
+
+        for (int batchSize : new int[]{1, 2, CALL_SITE_TREE.length}) {
+            for (SetMethodsStaticRunner.ExecutorKind executorKind : SetMethodsStaticRunner.ExecutorKind.values()) {
+                Path root = writeCallSiteTree(dir.resolve(batchSize + "-" + executorKind));
+                SetMethodsStaticRunner runner = SetMethodsStaticRunner.builder()
+                        .root(root)
+                        .parallelism(2)
+                        .executorKind(executorKind)
+                        .queueCapacity(2)
+                        .batchSize(batchSize)
+                        .classpath(List.of(classes))
+                        .build();
+
+                assertThat(runner.run()).hasSize(CALL_SITE_TREE.length).allMatch(result -> result.getError() == null);
+                assertThat(runner.getStats().getCallSitesRewritten())
+                        .as("batch size %d on %s", batchSize, executorKind)
+                        .isEqualTo(1);
+                assertThat(Files.readString(root.resolve("a/Helper.java"))).contains("public static int twice");
+                assertThat(Files.readString(root.resolve("b/Client.java"))).isEqualTo("""
+                        package b;
+
+                        import a.Helper;
+                        import a.Holder;
+
+                        class Client {
+                            int compute(Holder holder) {
+                                return Helper.twice(1);
+                            }
+                        }
+                        """);
+                assertThat(Files.readString(root.resolve("b/Other.java")))
+                        .isEqualTo(Files.readString(dir.resolve("compiled/b/Other.java")));
+            }
+        }
+    }
+
+    private static Path writeCallSiteTree(Path root) throws Exception {
+        write(root, "a/Helper.java", """
+                package a;
+
+                public class Helper {
+                    public final int twice(int value) {
+                        return value * 2;
+                    }
+                }
+                """);
+        write(root, "a/Holder.java", """
+                package a;
+
+                public class Holder {
+                    public final Helper helper = new Helper();
+                }
+                """);
+        write(root, "b/Client.java", """
+                package b;
+
+                import a.Holder;
+
+                class Client {
+                    int compute(Holder holder) {
+                        return holder.helper.twice(1);
+                    }
+                }
+                """);
+        write(root, "b/Other.java", """
+                package b;
+
+                class Other {
+                    private int counter;
+
+                    private int next() {
+                        return counter++;
+                    }
+                }
+                """);
+        return root;
+    }
+
+    private static void write(Path root, String source, String content) throws Exception {
+        Files.createDirectories(root.resolve(source).getParent());
+        Files.writeString(root.resolve(source), content);
+    }
+
+    private static void compile(Path root, Path classes, String... sources) {
+        String[] args = new String[sources.length + 2];
+        args[0] = "-d";
+        args[1] = classes.toString();
+        for (int i = 0; i < sources.length; i++) {
+            args[i + 2] = root.resolve(sources[i]).toString();
+        }
+        assertThat(ToolProvider.getSystemJavaCompiler().run(null, null, null, args)).isZero();
+    }
+}
@@ -0,0 +1,113 @@
+package org.openrewrite.java.cleanup;
+
+import org.junit.jupiter.api.Test;
+import org.openrewrite.ExecutionContext;
+import org.openrewrite.InMemoryExecutionContext;
+import org.openrewrite.SourceFile;
+import org.openrewrite.TreeVisitor;
+import org.openrewrite.java.JavaParser;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs {@link SetMethodsStatic} on the {@link SyntheticSources} of the benchmarks at scale 1 and 4, and fails when
+ * its work grows faster than the input. The work is measured by the nodes the visitors of the recipe visit, which
+ * are the same from one run to the next, unlike the time a run takes: the passes of the scanner and of the visitor
+ * over the compilation units, which are counted on every visit, so that a pass that walks a tree again for each of
+ * its members shows, and the analysis of method bodies. Both have to grow linearly: a quadratic cost would visit
+ * 16 times as many nodes for 4 times the input.
+ * <p>
+ * Every source file is scanned, then edited, then scanned and edited again, like in a run of two cycles, the second
+ * of which finds nothing left to change.
+ */
+class SetMethodsStaticScalabilityTest {
+    private static final double MAX_RATIO = 4.5;
+
+    @Test
+    void manySmallClasses() {
+        Measurement small = measure(SyntheticSources.MANY_SMALL_CLASSES, 1);
+        Measurement large = measure(SyntheticSources.MANY_SMALL_CLASSES, 4);
+        assertThat(large.methodsConverted).isEqualTo(1_000);
+        assertLinear(small, large);
+    }
+
+    @Test
+    void hugeClass() {
+        Measurement small = measure(SyntheticSources.HUGE_CLASS, 1);
+        Measurement large = measure(SyntheticSources.HUGE_CLASS, 4);
+        assertThat(large.methodsConverted).isEqualTo(5_000);
+        assertLinear(small, large);
+    }
+
+    @Test
+    void deepLambdas() {
+        Measurement small = measure(SyntheticSources.DEEP_LAMBDAS, 1);
+        Measurement large = measure(SyntheticSources.DEEP_LAMBDAS, 4);
+        assertThat(large.methodsConverted).isEqualTo(10);
+        assertLinear(small, large);
+    }
+
+    @Test
+    void wideFields() {
+        Measurement small = measure(SyntheticSources.WIDE_FIELDS, 1);
+        Measurement large = measure(SyntheticSources.WIDE_FIELDS, 4);
+        assertThat(large.methodsConverted).isEqualTo(50);
+        assertLinear(small, large);
+    }
+
+    private static void assertLinear(Measurement small, Measurement large) {
+        assertThat(small.nodesTraversed).isPositive();
+        assertThat((double) large.nodesTraversed / small.nodesTraversed)
+                .as("ratio of nodes traversed")
+                .isLessThanOrEqualTo(MAX_RATIO);
+        assertThat((double) large.nodesVisited / Math.max(small.nodesVisited, 1))
+                .as("ratio of nodes visited")
+                .isLessThanOrEqualTo(MAX_RATIO);
+        assertThat((double) large.identifiersVisited / Math.max(small.identifiersVisited, 1))
+                .as("ratio of identifiers visited")
+                .isLessThanOrEqualTo(MAX_RATIO);
+    }
+
+    /**
+     * Parses the sources, then runs two cycles of the recipe over them, each with a new accumulator.
+     */
+    private static Measurement measure(SyntheticSources shape, int scale) {
+        List<SourceFile> sourceFiles = JavaParser.fromJavaVersion().build()
+                .parse(shape.generate(scale))
+                .collect(Collectors.toList());
+
+        SetMethodsStatic recipe = new SetMethodsStatic(null, null, null, null);
+        ExecutionContext ctx = new InMemoryExecutionContext();
+        SetMethodsStaticStats stats = new SetMethodsStaticStats().register(ctx);
+        for (int cycle = 0; cycle < 2; cycle++) {
+            SetMethodsStatic.Accumulator acc = recipe.getInitialValue(ctx);
+            TreeVisitor<?, ExecutionContext> scanner = recipe.getScanner(acc);
+            for (SourceFile sourceFile : sourceFiles) {
+                scanner.visit(sourceFile, ctx);
+            }
+            TreeVisitor<?, ExecutionContext> visitor = recipe.getVisitor(acc);
+            sourceFiles = sourceFiles.stream()
+                    .map(sourceFile -> (SourceFile) visitor.visitNonNull(sourceFile, ctx))
+                    .collect(Collectors.toList());
+        }
+        return new Measurement(stats.getNodesTraversed(), stats.getNodesVisited(), stats.getIdentifiersVisited(),
+                stats.getMethodsConverted());
+    }
+
+    private static class Measurement {
+        final long nodesTraversed;
+        final long nodesVisited;
+        final long identifiersVisited;
+        final long methodsConverted;
+
+        Measurement(long nodesTraversed, long nodesVisited, long identifiersVisited, long methodsConverted) {
+            this.nodesTraversed = nodesTraversed;
+            this.nodesVisited = nodesVisited;
+            this.identifiersVisited = identifiersVisited;
+            this.methodsConverted = methodsConverted;
+        }
+    }
+}
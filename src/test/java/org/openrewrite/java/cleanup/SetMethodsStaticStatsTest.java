@@ -0,0 +1,82 @@
+package org.openrewrite.java.cleanup;
+
+import org.junit.jupiter.api.Test;
+import org.openrewrite.ExecutionContext;
+import org.openrewrite.InMemoryExecutionContext;
+import org.openrewrite.SourceFile;
+import org.openrewrite.Tree;
+import org.openrewrite.java.JavaParser;
+import org.openrewrite.java.cleanup.SetMethodsStaticStats.SkipReason;
+import org.openrewrite.java.marker.JavaVersion;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SetMethodsStaticStatsTest {
+
+    @Test
+    void countsEveryOutcome() {
+        SourceFile source = JavaParser.fromJavaVersion().build().parse(
+                """
+                        class Stats implements java.io.Serializable {
+                            private int counter;
+
+                            Stats() {
+                            }
+
+                            static int already() {
+                                return 1;
+                            }
+
+                            public int open() {
+                                java.util.function.IntUnaryOperator op = this::identity;
+                                return op.applyAsInt(1);
+                            }
+
+                            private int identity(int v) {
+                                return v;
+                            }
+
+                            private void writeObject(java.io.ObjectOutputStream out) {
+                            }
+
+                            private int next() {
+                                return counter++;
+                            }
+
+                            private int nextTwice() {
+                                return next() * 2;
+                            }
+
+                            private int twice(int v) {
+                                return v * 2;
+                            }
+
+                            class Inner {
+                                private int one() {
+                                    return 1;
+                                }
+                            }
+                        }
+                        """
+        ).findFirst().orElseThrow(IllegalStateException::new);
+        //inner classes can't declare static methods before Java 16
+        source = source.withMarkers(source.getMarkers().removeByType(JavaVersion.class)
+                .add(new JavaVersion(Tree.randomId(), "test", "test", "11", "11")));
+
+        SetMethodsStatic recipe = new SetMethodsStatic(null, null, null, null);
+        ExecutionContext ctx = new InMemoryExecutionContext();
+        SetMethodsStaticStats stats = new SetMethodsStaticStats().register(ctx);
+        SetMethodsStatic.Accumulator acc = recipe.getInitialValue(ctx);
+        recipe.getScanner(acc).visit(source, ctx);
+        recipe.getVisitor(acc).visit(source, ctx);
+
+        assertThat(stats.getClassesScanned()).isEqualTo(2);
+        assertThat(stats.getClassesAnalyzed()).isEqualTo(2);
+        assertThat(stats.getCandidatesEvaluated()).isEqualTo(4);
+        assertThat(stats.getMethodsConverted()).isEqualTo(1);
+        assertThat(stats.getIdentifiersVisited()).isPositive();
+        for (SkipReason reason : SkipReason.values()) {
+            assertThat(stats.getSkipped(reason)).as(reason.name()).isEqualTo(1);
+        }
+    }
+}
@@ -1,17 +1,22 @@
 package org.openrewrite.java.cleanup;
 
 import org.junit.jupiter.api.Test;
+import org.openrewrite.java.cleanup.table.SkippedSourceFiles;
+import org.openrewrite.java.cleanup.table.StaticMethodCandidates;
 import org.openrewrite.test.RecipeSpec;
 import org.openrewrite.test.RewriteTest;
+import org.openrewrite.test.TypeValidation;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.openrewrite.java.Assertions.java;
+import static org.openrewrite.java.Assertions.version;
 
 @SuppressWarnings("ALL")
 class SetMethodsStaticTest implements RewriteTest {
 
     @Override
     public void defaults(RecipeSpec spec) {
-        spec.recipe(new SetMethodsStatic());
+        spec.recipe(new SetMethodsStatic(null, null, null, null));
     }
 
     @Test
@@ -291,9 +296,8 @@ class SetMethodsStaticTest implements RewriteTest {
     }
 
     @Test
-    void methodsUpdateToStaticInTwoCycles() {
+    void callerOfStaticCandidateUpdatesInSameCycle() {
         rewriteRun(
-            spec -> { spec.expectedCyclesThatMakeChanges(2); },
             java(
                 """
                     class Utilities {
@@ -325,12 +329,9 @@ class SetMethodsStaticTest implements RewriteTest {
         );
     }
 
-    //This is currently failing.
-    //Looks like it is only running two cycles, even though 3 is specified.
-    //by adding doAfterVisit(), this test will succeed.
-    void methodsUpdateToStaticInMultipleCycles() {
+    @Test
+    void chainOfHelpersUpdatesInOneCycle() {
         rewriteRun(
-            spec -> { spec.expectedCyclesThatMakeChanges(3); },
             java(
                 """
                     class Utilities {
@@ -370,6 +371,168 @@ class SetMethodsStaticTest implements RewriteTest {
         );
     }
 
+    @Test
+    void mutuallyRecursiveMethods() {
+        rewriteRun(
+            java(
+                """
+                    class Utilities {
+                        private static int depth = 0;
+                        
+                        private boolean isEven(int n) {
+                            return n == depth || isOdd(n - 1);
+                        }
+                        
+                        private boolean isOdd(int n) {
+                            return n != depth && isEven(n - 1);
+                        }
+                    }
+                    """,
+                """
+                    class Utilities {
+                        private static int depth = 0;
+                        
+                        private static boolean isEven(int n) {
+                            return n == depth || isOdd(n - 1);
+                        }
+                        
+                        private static boolean isOdd(int n) {
+                            return n != depth && isEven(n - 1);
+                        }
+                    }
+                    """
+            )
+        );
+    }
+
+    @Test
+    void mutuallyRecursiveMethodsAccessingInstanceData() {
+        rewriteRun(
+            java(
+                """
+                    class Utilities {
+                        private int depth = 0;
+                        
+                        private boolean isEven(int n) {
+                            return n == depth || isOdd(n - 1);
+                        }
+                        
+                        private boolean isOdd(int n) {
+                            return n != 0 && isEven(n - 1);
+                        }
+                        
+                        private boolean isPositive(int n) {
+                            return n > 0 && isOdd(n);
+                        }
+                    }
+                    """
+            )
+        );
+    }
+
+    @Test
+    void parameterSharingNameOfInstanceField() {
+        rewriteRun(
+            java(
+                """
+                    class Utilities {
+                        private String instantName;
+                        
+                        private String greet(String instantName) {
+                            String greeting = "hello " + instantName;
+                            return greeting;
+                        }
+                    }
+                    """,
+                """
+                    class Utilities {
+                        private String instantName;
+                        
+                        private static String greet(String instantName) {
+                            String greeting = "hello " + instantName;
+                            return greeting;
+                        }
+                    }
+                    """
+            )
+        );
+    }
+
+    @Test
+    void instanceDataOfAnotherObject() {
+        rewriteRun(
+            java(
+                """
+                    class Utilities {
+                        private String instantName;
+                        
+                        private String describe() {
+                            return instantName;
+                        }
+                        
+                        private boolean sameName(Utilities other, Utilities another) {
+                            return other.instantName.equals(another.describe());
+                        }
+                    }
+                    """,
+                """
+                    class Utilities {
+                        private String instantName;
+                        
+                        private String describe() {
+                            return instantName;
+                        }
+                        
+                        private static boolean sameName(Utilities other, Utilities another) {
+                            return other.instantName.equals(another.describe());
+                        }
+                    }
+                    """
+            )
+        );
+    }
+
+    @Test
+    void thisAndInheritedInstanceMembers() {
+        rewriteRun(
+            java(
+                """
+                    class Base {
+                        protected int count;
+                        
+                        public int size() {
+                            return count;
+                        }
+                    }
+                    """
+            ),
+            java(
+                """
+                    class Utilities extends Base {
+                        private Utilities() {
+                        }
+                        
+                        private Utilities self() {
+                            return this;
+                        }
+                        
+                        private int inheritedField() {
+                            return count;
+                        }
+                        
+                        private int inheritedMethod() {
+                            return size();
+                        }
+                        
+                        private String superMethod() {
+                            return super.toString();
+                        }
+                    }
+                    """
+            )
+        );
+    }
+
     @Test
     void methodAccessInnerStaticClassMethod() {
         rewriteRun(
@@ -408,6 +571,41 @@ class SetMethodsStaticTest implements RewriteTest {
         );
     }
 
+    @Test
+    void methodsOfLocalAndAnonymousClassesAreNotChanged() {
+        rewriteRun(
+            java(
+                """
+                    class Utilities {
+                        private String instantName;
+                        
+                        public Runnable task(String value) {
+                            class Greeter {
+                                private String greet() {
+                                    return "hello " + value;
+                                }
+                            }
+                            return new Runnable() {
+                                @Override
+                                public void run() {
+                                    print(new Greeter().greet());
+                                }
+                        
+                                private void print(String s) {
+                                    System.out.println(s);
+                                }
+                            };
+                        }
+                        
+                        private String getName() {
+                            return instantName;
+                        }
+                    }
+                    """
+            )
+        );
+    }
+
     @Test
     void methodAccessingLibraryStaticMethod() {
         rewriteRun(
@@ -475,4 +673,778 @@ class SetMethodsStaticTest implements RewriteTest {
             )
         );
     }
+
+    @Test
+    void onlyModifiersAreReformatted() {
+        rewriteRun(
+            java(
+                """
+                    class Utilities {
+                        final private int twice(int value) { return value*2; }
+
+                        @Deprecated
+                        final int thrice(int value) {
+                          return value  *  3;
+                        }
+                    }
+                    """,
+                """
+                    class Utilities {
+                        private static int twice(int value) { return value*2; }
+
+                        @Deprecated
+                        static int thrice(int value) {
+                          return value  *  3;
+                        }
+                    }
+                    """
+            )
+        );
+    }
+
+    @Test
+    void serializableImportedBySimpleName() {
+        rewriteRun(
+            java(
+                """
+                    import java.io.IOException;
+                    import java.io.ObjectOutputStream;
+                    import java.io.Serializable;
+                    
+                    class Utilities implements Serializable {
+                        private void writeObject(ObjectOutputStream out) throws IOException {
+                        }
+                    }
+                    """
+            )
+        );
+    }
+
+    @Test
+    void serializableThroughSuperclass() {
+        rewriteRun(
+            java(
+                """
+                    import java.io.IOException;
+                    import java.io.ObjectInputStream;
+                    import java.util.ArrayList;
+                    
+                    class Names extends ArrayList<String> {
+                        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+                        }
+                    
+                        private void readObjectNoData() {
+                        }
+                    }
+                    """
+            )
+        );
+    }
+
+    @Test
+    void serializableThroughAnUnresolvedSuperclass() {
+        rewriteRun(
+            spec -> spec.typeValidationOptions(TypeValidation.none())
+                .afterTypeValidationOptions(TypeValidation.none()),
+            java(
+                """
+                    import java.io.IOException;
+                    import java.io.ObjectInputStream;
+                    import org.example.Base;
+                    
+                    class Names extends Base {
+                        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+                        }
+                    
+                        private Object readResolve() {
+                            return null;
+                        }
+                    
+                        private int twice(int value) {
+                            return value * 2;
+                        }
+                    }
+                    """,
+                """
+                    import java.io.IOException;
+                    import java.io.ObjectInputStream;
+                    import org.example.Base;
+                    
+                    class Names extends Base {
+                        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+                        }
+                    
+                        private Object readResolve() {
+                            return null;
+                        }
+                    
+                        private static int twice(int value) {
+                            return value * 2;
+                        }
+                    }
+                    """
+            )
+        );
+    }
+
+    @Test
+    void reportOnly() {
+        rewriteRun(
+            spec -> spec.recipe(new SetMethodsStatic(true, null, null, null))
+                .dataTable(StaticMethodCandidates.Row.class, rows -> assertThat(rows).containsExactlyInAnyOrder(
+                    new StaticMethodCandidates.Row("Utilities.java", "Utilities", "Utilities twice(int)",
+                        "Does not access instance data"),
+                    new StaticMethodCandidates.Row("Utilities.java", "Utilities", "Utilities quadruple(int)",
+                        "Does not access instance data, and only calls methods of its class that can be made static")
+                )),
+            java(
+                """
+                    class Utilities {
+                        private int counter;
+                        
+                        private int twice(int value) {
+                            return value * 2;
+                        }
+                        
+                        private int quadruple(int value) {
+                            return twice(twice(value));
+                        }
+                        
+                        private int next() {
+                            return counter++;
+                        }
+                    }
+                    """
+            )
+        );
+    }
+
+    @Test
+    void syntacticWithoutClasspath() {
+        rewriteRun(
+            spec -> spec.recipe(new SetMethodsStatic(null, null, null, "Syntactic"))
+                .typeValidationOptions(TypeValidation.none())
+                .afterTypeValidationOptions(TypeValidation.none()),
+            java(
+                """
+                    import static org.example.Numbers.clamp;
+                    
+                    import java.util.function.IntUnaryOperator;
+                    import org.example.Base;
+                    
+                    class Utilities extends Base {
+                        private int counter;
+                    
+                        private int twice(int value) {
+                            return clamp(value * 2);
+                        }
+                    
+                        private int quadruple(int value) {
+                            return twice(twice(value));
+                        }
+                    
+                        private int next() {
+                            return counter++;
+                        }
+                    
+                        private int nextTwice() {
+                            return twice(next());
+                        }
+                    
+                        private int inheritedTwice(int value) {
+                            return inherited(twice(value));
+                        }
+                    
+                        private int shadowed(int counter) {
+                            return counter;
+                        }
+                    
+                        private int referenced(int value) {
+                            return value;
+                        }
+                    
+                        IntUnaryOperator operator() {
+                            return this::referenced;
+                        }
+                    }
+                    """,
+                """
+                    import static org.example.Numbers.clamp;
+                    
+                    import java.util.function.IntUnaryOperator;
+                    import org.example.Base;
+                    
+                    class Utilities extends Base {
+                        private int counter;
+                    
+                        private static int twice(int value) {
+                            return clamp(value * 2);
+                        }
+                    
+                        private static int quadruple(int value) {
+                            return twice(twice(value));
+                        }
+                    
+                        private int next() {
+                            return counter++;
+                        }
+                    
+                        private int nextTwice() {
+                            return twice(next());
+                        }
+                    
+                        private int inheritedTwice(int value) {
+                            return inherited(twice(value));
+                        }
+                    
+                        private int shadowed(int counter) {
+                            return counter;
+                        }
+                    
+                        private int referenced(int value) {
+                            return value;
+                        }
+                    
+                        IntUnaryOperator operator() {
+                            return this::referenced;
+                        }
+                    }
+                    """
+            )
+        );
+    }
+
+    @Test
+    void syntacticInheritedFields() {
+        rewriteRun(
+            spec -> spec.recipe(new SetMethodsStatic(null, null, null, "Syntactic"))
+                .typeValidationOptions(TypeValidation.none())
+                .afterTypeValidationOptions(TypeValidation.none()),
+            java(
+                """
+                    import java.util.List;
+                    import org.example.Base;
+                    
+                    class Utilities extends Base {
+                        private int inheritedField() {
+                            return inherited;
+                        }
+                    
+                        private int outOfScope(boolean flag) {
+                            if (flag) {
+                                int total = 1;
+                                return total;
+                            }
+                            return total;
+                        }
+                    
+                        private int locals(List<String> values) {
+                            int sum = 0;
+                            for (String value : values) {
+                                sum += value.length();
+                            }
+                            return Math.max(sum, values.stream().mapToInt(v -> v.length()).sum());
+                        }
+                    }
+                    """,
+                """
+                    import java.util.List;
+                    import org.example.Base;
+                    
+                    class Utilities extends Base {
+                        private int inheritedField() {
+                            return inherited;
+                        }
+                    
+                        private int outOfScope(boolean flag) {
+                            if (flag) {
+                                int total = 1;
+                                return total;
+                            }
+                            return total;
+                        }
+                    
+                        private static int locals(List<String> values) {
+                            int sum = 0;
+                            for (String value : values) {
+                                sum += value.length();
+                            }
+                            return Math.max(sum, values.stream().mapToInt(v -> v.length()).sum());
+                        }
+                    }
+                    """
+            )
+        );
+    }
+
+    @Test
+    void unattributedMembersOfAMissingSupertype() {
+        rewriteRun(
+            spec -> spec.typeValidationOptions(TypeValidation.none())
+                .afterTypeValidationOptions(TypeValidation.none()),
+            java(
+                """
+                    import org.example.Base;
+                    
+                    class Utilities extends Base {
+                        private int inheritedField() {
+                            return counter++;
+                        }
+                    
+                        private int inheritedFieldOnThis() {
+                            return this.counter;
+                        }
+                    
+                        private int inheritedMethod() {
+                            return inherited();
+                        }
+                    
+                        private int inheritedMethodOnThis() {
+                            return this.inherited();
+                        }
+                    
+                        private java.util.List<String> qualifiedTypes(int value) {
+                            return java.util.Collections.singletonList(String.valueOf(value));
+                        }
+                    }
+                    """,
+                """
+                    import org.example.Base;
+                    
+                    class Utilities extends Base {
+                        private int inheritedField() {
+                            return counter++;
+                        }
+                    
+                        private int inheritedFieldOnThis() {
+                            return this.counter;
+                        }
+                    
+                        private int inheritedMethod() {
+                            return inherited();
+                        }
+                    
+                        private int inheritedMethodOnThis() {
+                            return this.inherited();
+                        }
+                    
+                        private static java.util.List<String> qualifiedTypes(int value) {
+                            return java.util.Collections.singletonList(String.valueOf(value));
+                        }
+                    }
+                    """
+            )
+        );
+    }
+
+    @Test
+    void fileOverBudgetIsSkipped() {
+        rewriteRun(
+            spec -> spec.recipe(new SetMethodsStatic(null, 5, null, null))
+                .dataTable(SkippedSourceFiles.Row.class, rows -> {
+                    assertThat(rows).hasSize(1);
+                    assertThat(rows.get(0).getSourcePath()).isEqualTo("a/Helper.java");
+                    assertThat(rows.get(0).getReason()).isEqualTo("Visited more than 5 nodes");
+                    assertThat(rows.get(0).getNodesVisited()).isEqualTo(6);
+                }),
+            java(
+                """
+                    package a;
+                    
+                    public class Helper {
+                        public final int twice(int value) {
+                            return value * 2;
+                        }
+                    }
+                    """
+            ),
+            java(
+                """
+                    package a;
+                    
+                    public class Caller {
+                        public int call(Helper helper) {
+                            return helper.twice(2);
+                        }
+                    }
+                    """
+            )
+        );
+    }
+
+    @Test
+    void callSitesInOtherFilesAreRewritten() {
+        rewriteRun(
+            java(
+                """
+                    package a;
+                    
+                    public class Helper {
+                        public final int twice(int value) {
+                            return value * 2;
+                        }
+                    }
+                    """,
+                """
+                    package a;
+                    
+                    public class Helper {
+                        public static int twice(int value) {
+                            return value * 2;
+                        }
+                    }
+                    """
+            ),
+            java(
+                """
+                    package a;
+                    
+                    public class Holder {
+                        public final Helper helper = new Helper();
+                    }
+                    """
+            ),
+            java(
+                """
+                    package b;
+                    
+                    import a.Holder;
+                    
+                    class Client {
+                        int compute(Holder holder) {
+                            return holder.helper.twice(1) + new Holder().helper.twice(2);
+                        }
+                    }
+                    """,
+                """
+                    package b;
+                    
+                    import a.Helper;
+                    import a.Holder;
+                    
+                    class Client {
+                        int compute(Holder holder) {
+                            return Helper.twice(1) + new Holder().helper.twice(2);
+                        }
+                    }
+                    """
+            )
+        );
+    }
+
+    @Test
+    void callSitesNextToAnotherTypeWithTheSameNameAreQualified() {
+        rewriteRun(
+            java(
+                """
+                    package a;
+                    
+                    public class Helper {
+                        public final int twice(int value) {
+                            return value * 2;
+                        }
+                    }
+                    """,
+                """
+                    package a;
+                    
+                    public class Helper {
+                        public static int twice(int value) {
+                            return value * 2;
+                        }
+                    }
+                    """
+            ),
+            java(
+                """
+                    package a;
+                    
+                    public class Holder {
+                        public final Helper helper = new Helper();
+                    }
+                    """
+            ),
+            java(
+                """
+                    package b;
+                    
+                    class Helper {
+                    }
+                    """
+            ),
+            java(
+                """
+                    package b;
+                    
+                    import a.Holder;
+                    
+                    class Client {
+                        Object helper = new Helper();
+                    
+                        int compute(Holder holder) {
+                            return holder.helper.twice(1);
+                        }
+                    }
+                    """,
+                """
+                    package b;
+                    
+                    import a.Holder;
+                    
+                    class Client {
+                        Object helper = new Helper();
+                    
+                        int compute(Holder holder) {
+                            return a.Helper.twice(1);
+                        }
+                    }
+                    """
+            ),
+            java(
+                """
+                    package b;
+                    
+                    import a.*;
+                    
+                    class WildcardClient {
+                        int compute(Holder holder) {
+                            return holder.helper.twice(1);
+                        }
+                    }
+                    """,
+                """
+                    package b;
+                    
+                    import a.*;
+                    
+                    class WildcardClient {
+                        int compute(Holder holder) {
+                            return a.Helper.twice(1);
+                        }
+                    }
+                    """
+            )
+        );
+    }
+
+    @Test
+    void methodsUsedAsMethodReferencesAreNotChanged() {
+        rewriteRun(
+            java(
+                """
+                    import java.util.Arrays;
+                    
+                    class Utilities {
+                        private int twice(int value) {
+                            return value * 2;
+                        }
+                        
+                        public final int thrice(int value) {
+                            return value * 3;
+                        }
+                        
+                        public int[] doubled(int[] values) {
+                            return Arrays.stream(values).map(this::twice).toArray();
+                        }
+                    }
+                    """
+            ),
+            java(
+                """
+                    import java.util.function.BiFunction;
+                    
+                    class Client {
+                        BiFunction<Utilities, Integer, Integer> thrice = Utilities::thrice;
+                    }
+                    """
+            )
+        );
+    }
+
+    @Test
+    void anonymousClassesAccessingInstanceData() {
+        rewriteRun(
+            java(
+                """
+                    class Utilities {
+                        private int counter;
+                        
+                        private Runnable incrementer() {
+                            return new Runnable() {
+                                @Override
+                                public void run() {
+                                    counter++;
+                                }
+                            };
+                        }
+                        
+                        private Runnable printer(String message) {
+                            return new Runnable() {
+                                private int counter;
+                        
+                                @Override
+                                public void run() {
+                                    System.out.println(message + this.counter++ + hashCode());
+                                }
+                            };
+                        }
+                    }
+                    """,
+                """
+                    class Utilities {
+                        private int counter;
+                        
+                        private Runnable incrementer() {
+                            return new Runnable() {
+                                @Override
+                                public void run() {
+                                    counter++;
+                                }
+                            };
+                        }
+                        
+                        private static Runnable printer(String message) {
+                            return new Runnable() {
+                                private int counter;
+                        
+                                @Override
+                                public void run() {
+                                    System.out.println(message + this.counter++ + hashCode());
+                                }
+                            };
+                        }
+                    }
+                    """
+            )
+        );
+    }
+
+    @Test
+    void localClassesAccessingInstanceData() {
+        rewriteRun(
+            java(
+                """
+                    class Utilities {
+                        private String name;
+                        
+                        private String greeting() {
+                            class Greeter {
+                                String greet() {
+                                    return "hello " + name;
+                                }
+                            }
+                            return new Greeter().greet();
+                        }
+                        
+                        private String farewell(String who) {
+                            class Greeter {
+                                private final String name = who;
+                        
+                                String greet() {
+                                    return "bye " + Greeter.this.name;
+                                }
+                            }
+                            return new Greeter().greet();
+                        }
+                    }
+                    """,
+                """
+                    class Utilities {
+                        private String name;
+                        
+                        private String greeting() {
+                            class Greeter {
+                                String greet() {
+                                    return "hello " + name;
+                                }
+                            }
+                            return new Greeter().greet();
+                        }
+                        
+                        private static String farewell(String who) {
+                            class Greeter {
+                                private final String name = who;
+                        
+                                String greet() {
+                                    return "bye " + Greeter.this.name;
+                                }
+                            }
+                            return new Greeter().greet();
+                        }
+                    }
+                    """
+            )
+        );
+    }
+
+    @Test
+    void innerBuilder() {
+        rewriteRun(
+            version(
+                java(
+                    """
+                        class Pizza {
+                            private String topping;
+                        
+                            private Builder builder() {
+                                return new Builder();
+                            }
+                        
+                            class Builder {
+                                private Builder topping(String topping) {
+                                    Pizza.this.topping = normalize(topping);
+                                    return this;
+                                }
+                        
+                                private String normalize(String topping) {
+                                    return topping.trim();
+                                }
+                            }
+                        }
+                        """,
+                    """
+                        class Pizza {
+                            private String topping;
+                        
+                            private Builder builder() {
+                                return new Builder();
+                            }
+                        
+                            class Builder {
+                                private Builder topping(String topping) {
+                                    Pizza.this.topping = normalize(topping);
+                                    return this;
+                                }
+                        
+                                private static String normalize(String topping) {
+                                    return topping.trim();
+                                }
+                            }
+                        }
+                        """
+                ),
+                17
+            )
+        );
+    }
+
+    @Test
+    void innerClassesBeforeJava16() {
+        rewriteRun(
+            version(
+                java(
+                    """
+                        class Pizza {
+                            class Builder {
+                                private String normalize(String topping) {
+                                    return topping.trim();
+                                }
+                            }
+                        }
+                        """
+                ),
+                11
+            )
+        );
+    }
 }
@@ -0,0 +1,76 @@
+package org.openrewrite.java.cleanup;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ShardCoordinatorTest {
+    private static final List<String> SOURCES = List.of("a/Numbers.java", "a/Uses.java", "a/Other.java");
+
+    @Test
+    void largestFirstToTheSmallestShard() {
+        List<List<String>> shards = ShardCoordinator.assign(List.of("a", "b", "c", "d", "e"),
+                new long[]{5, 9, 4, 7, 3}, 2);
+        assertThat(shards).containsExactly(List.of("b", "c"), List.of("d", "a", "e"));
+    }
+
+    /**
+     * The method reference and the method it refers to are in different shards, and only the exchange between
+     * the workers keeps the method from being made static.
+     */
+    @Test
+    void sameOutcomeAsASingleRunner(@TempDir Path dir) throws Exception {
+        Path single = write(dir.resolve("single"));
+        Path sharded = write(dir.resolve("sharded"));
+
+        SetMethodsStaticRunner.fromArgs(new String[]{single.toString(), "--analysis-mode", "syntactic"}).run();
+        List<SetMethodsStaticRunner.Result> results = new ShardCoordinator(2, List.of(),
+                List.of(sharded.toString(), "--analysis-mode", "syntactic")).run();
+
+        assertThat(results).hasSize(SOURCES.size()).allMatch(result -> result.getError() == null);
+        assertThat(Files.readString(sharded.resolve("a/Numbers.java")))
+                .contains("final int twice")
+                .contains("static int half");
+        for (String source : SOURCES) {
+            assertThat(Files.readString(sharded.resolve(source))).isEqualTo(Files.readString(single.resolve(source)));
+        }
+    }
+
+    private static Path write(Path root) throws Exception {
+        Files.createDirectories(root.resolve("a"));
+        Files.writeString(root.resolve("a/Numbers.java"), """
+                package a;
+                
+                public class Numbers {
+                    final int twice(int x) {
+                        return x * 2;
+                    }
+                
+                    final int half(int x) {
+                        return x / 2;
+                    }
+                }
+                """);
+        Files.writeString(root.resolve("a/Uses.java"), """
+                package a;
+                
+                import java.util.function.IntUnaryOperator;
+                
+                class Uses {
+                    IntUnaryOperator op = new Numbers()::twice;
+                }
+                """);
+        Files.writeString(root.resolve("a/Other.java"), """
+                package a;
+                
+                class Other {
+                }
+                """);
+        return root;
+    }
+}
@@ -0,0 +1,140 @@
+package org.openrewrite.java.cleanup;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIOException;
+
+class SourcePatchTest {
+    private static final String BEFORE = """
+            package a;
+
+            class Helper {
+                private int twice(int value) {
+                    return value * 2;
+                }
+
+                private int count;
+
+                private int inc() {
+                    return ++count;
+                }
+
+                private final int quadruple(int value) {
+                    return twice(twice(value));
+                }
+            }
+            """;
+
+    private static final String AFTER = """
+            package a;
+
+            class Helper {
+                private static int twice(int value) {
+                    return value * 2;
+                }
+
+                private int count;
+
+                private int inc() {
+                    return ++count;
+                }
+
+                private static int quadruple(int value) {
+                    return twice(twice(value));
+                }
+            }
+            """;
+
+    @Test
+    void changesAreTheChangedLines() {
+        SourcePatch patch = patch(BEFORE, AFTER);
+        assertThat(patch.getChanges()).containsExactly(
+                new SourcePatch.Change(3, 4, 3, 4),
+                new SourcePatch.Change(13, 14, 13, 14)
+        );
+        SourcePatch.Change first = patch.getChanges().get(0);
+        assertThat(patch.offset(first)).isEqualTo(BEFORE.indexOf("    private int twice"));
+        assertThat(patch.length(first)).isEqualTo("    private int twice(int value) {\n".length());
+        assertThat(new String(patch.replacement(first), StandardCharsets.UTF_8))
+                .isEqualTo("    private static int twice(int value) {\n");
+    }
+
+    @Test
+    void appliedInPlace(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("Helper.java");
+        Files.write(file, BEFORE.getBytes(StandardCharsets.UTF_8));
+        patch(BEFORE, AFTER).applyTo(file);
+        assertThat(Files.readString(file)).isEqualTo(AFTER);
+
+        //a change that keeps the length of the file only writes the changed lines
+        String renamed = AFTER.replace("count", "total");
+        patch(AFTER, renamed).applyTo(file);
+        assertThat(Files.readString(file)).isEqualTo(renamed);
+
+        String shorter = renamed.replace("    private int total;\n\n", "");
+        patch(renamed, shorter).applyTo(file);
+        assertThat(Files.readString(file)).isEqualTo(shorter);
+    }
+
+    @Test
+    void notAppliedToAChangedFile(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("Helper.java");
+        String edited = BEFORE.replace("value * 2", "value * 3");
+        Files.write(file, edited.getBytes(StandardCharsets.UTF_8));
+
+        assertThatIOException().isThrownBy(() -> patch(BEFORE, AFTER).applyTo(file));
+        assertThatIOException().isThrownBy(() -> patch(BEFORE, BEFORE.replace("count", "total")).applyTo(file));
+        assertThat(Files.readString(file)).isEqualTo(edited);
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat(files).containsExactly(file);
+        }
+    }
+
+    @Test
+    void unifiedDiff() {
+        StringBuilder diff = new StringBuilder();
+        patch(BEFORE, AFTER).writeUnifiedDiff("a/Helper.java", StandardCharsets.UTF_8, diff);
+        assertThat(diff.toString()).isEqualTo("""
+                --- a/a/Helper.java
+                +++ b/a/Helper.java
+                @@ -1,7 +1,7 @@
+                 package a;
+                \s
+                 class Helper {
+                -    private int twice(int value) {
+                +    private static int twice(int value) {
+                         return value * 2;
+                     }
+                \s
+                @@ -11,7 +11,7 @@
+                         return ++count;
+                     }
+                \s
+                -    private final int quadruple(int value) {
+                +    private static int quadruple(int value) {
+                         return twice(twice(value));
+                     }
+                 }
+                """);
+    }
+
+    @Test
+    void noChanges() {
+        SourcePatch patch = patch(BEFORE, BEFORE);
+        assertThat(patch.getChanges()).isEmpty();
+        StringBuilder diff = new StringBuilder();
+        patch.writeUnifiedDiff("a/Helper.java", StandardCharsets.UTF_8, diff);
+        assertThat(diff).isEmpty();
+    }
+
+    private static SourcePatch patch(String before, String after) {
+        return SourcePatch.between(before.getBytes(StandardCharsets.UTF_8), after.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,110 @@
+package org.openrewrite.java.cleanup;
+
+/**
+ * Generated compilation units of a given shape. Each shape mixes methods that can be made static with methods
+ * that access instance data, so that both outcomes of the analysis are exercised.
+ * <p>
+ * The benchmarks measure how fast the recipe runs on them, and the scalability tests that its work grows linearly
+ * with the scale.
+ */
+public enum SyntheticSources {
+    /**
+     * Many small classes, each in its own compilation unit.
+     */
+    MANY_SMALL_CLASSES {
+        @Override
+        String[] generate(int scale) {
+            String[] sources = new String[250 * scale];
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = "class Small" + i + " {\n" +
+                             "    private static int shared = " + i + ";\n" +
+                             "    private int counter;\n" +
+                             "\n" +
+                             "    private int next() {\n" +
+                             "        return counter++;\n" +
+                             "    }\n" +
+                             "\n" +
+                             "    private int twice(int value) {\n" +
+                             "        return value * 2 + shared;\n" +
+                             "    }\n" +
+                             "\n" +
+                             "    public int compute() {\n" +
+                             "        return twice(next());\n" +
+                             "    }\n" +
+                             "}\n";
+            }
+            return sources;
+        }
+    },
+
+    /**
+     * A single class with thousands of methods. Half of them access a field, and each of the others calls the one
+     * declared two before it, which makes a chain of methods that can all be made static.
+     */
+    HUGE_CLASS {
+        @Override
+        String[] generate(int scale) {
+            StringBuilder source = new StringBuilder("class Huge {\n    private int counter;\n");
+            for (int i = 0; i < 2500 * scale; i++) {
+                source.append("    private int m").append(i).append("(int value) {\n");
+                if (i % 2 == 0) {
+                    source.append("        return value + counter;\n");
+                } else if (i == 1) {
+                    source.append("        return value + 1;\n");
+                } else {
+                    source.append("        return m").append(i - 2).append("(value) + ").append(i).append(";\n");
+                }
+                source.append("    }\n");
+            }
+            return new String[]{source.append("}\n").toString()};
+        }
+    },
+
+    /**
+     * Methods whose bodies are lambdas nested inside of lambdas.
+     */
+    DEEP_LAMBDAS {
+        @Override
+        String[] generate(int scale) {
+            StringBuilder source = new StringBuilder("class Deep {\n    private int counter;\n");
+            for (int m = 0; m < 20; m++) {
+                source.append("    private Runnable m").append(m).append("() {\n");
+                int depth = 25 * scale;
+                for (int d = 0; d < depth; d++) {
+                    source.append("        Runnable r").append(d).append(" = () -> {\n");
+                }
+                source.append(m % 2 == 0 ? "            counter++;\n" : "            System.out.println();\n");
+                for (int d = depth - 1; d >= 0; d--) {
+                    source.append("        };\n");
+                    if (d > 0) {
+                        source.append("        r").append(d).append(".run();\n");
+                    }
+                }
+                source.append("        return r0;\n    }\n");
+            }
+            return new String[]{source.append("}\n").toString()};
+        }
+    },
+
+    /**
+     * A class with a very long list of instance fields, and methods that refer to them.
+     */
+    WIDE_FIELDS {
+        @Override
+        String[] generate(int scale) {
+            int fields = 1000 * scale;
+            StringBuilder source = new StringBuilder("class Wide {\n");
+            for (int i = 0; i < fields; i++) {
+                source.append("    private int f").append(i).append(";\n");
+            }
+            for (int m = 0; m < 100; m++) {
+                source.append("    private int m").append(m).append("(int f").append(m).append(") {\n")
+                        .append("        return f").append(m).append(m % 2 == 0 ? " + f" + (fields - 1) : " + 1")
+                        .append(";\n    }\n");
+            }
+            return new String[]{source.append("}\n").toString()};
+        }
+    };
+
+    abstract String[] generate(int scale);
+}